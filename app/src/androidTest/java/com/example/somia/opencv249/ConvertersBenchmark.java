@@ -0,0 +1,128 @@
+package com.example.somia.opencv249;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Mat;
+import org.opencv.utils.Converters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Allocations and throughput of the boxed List converters against their primitive array
+ * variants, for float and int vectors of 1k, 100k and 1M elements.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConvertersBenchmark {
+    private static final int[] SIZES = { 1000, 100000, 1000000 };
+    // conversions per timed round, about the same amount of data for every size
+    private static final int[] ITERATIONS = { 500, 10, 2 };
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void floatVectors() {
+        for (int s = 0; s < SIZES.length; s++) {
+            final int n = SIZES[s];
+            Random random = new Random(n);
+            final float[] array = new float[n];
+            final List<Float> list = new ArrayList<Float>(n);
+            for (int i = 0; i < n; i++) {
+                array[i] = random.nextFloat();
+                list.add(array[i]);
+            }
+            final Mat m = Converters.vector_float_to_Mat(array, n);
+
+            DeviceBenchmark.measure("vector_float_to_Mat(List<Float>) " + n, ITERATIONS[s], n, new Runnable() {
+                @Override
+                public void run() {
+                    Converters.vector_float_to_Mat(list).release();
+                }
+            });
+            DeviceBenchmark.measure("vector_float_to_Mat(float[], int) " + n, ITERATIONS[s], n, new Runnable() {
+                @Override
+                public void run() {
+                    Converters.vector_float_to_Mat(array, n).release();
+                }
+            });
+            final List<Float> listOut = new ArrayList<Float>(n);
+            DeviceBenchmark.measure("Mat_to_vector_float(Mat, List<Float>) " + n, ITERATIONS[s], n, new Runnable() {
+                @Override
+                public void run() {
+                    Converters.Mat_to_vector_float(m, listOut);
+                }
+            });
+            final float[] arrayOut = new float[n];
+            DeviceBenchmark.Result primitive = DeviceBenchmark.measure("Mat_to_vector_float(Mat, float[]) " + n,
+                    ITERATIONS[s], n, new Runnable() {
+                @Override
+                public void run() {
+                    Converters.Mat_to_vector_float(m, arrayOut);
+                }
+            });
+            assertEquals(list, listOut);
+            assertEquals(array[n - 1], arrayOut[n - 1], 0f);
+            // the reused array is filled in place
+            assertEquals(0, primitive.objectsPerOp, 0.5);
+            m.release();
+        }
+    }
+
+    @Test
+    public void intVectors() {
+        for (int s = 0; s < SIZES.length; s++) {
+            final int n = SIZES[s];
+            Random random = new Random(n);
+            final int[] array = new int[n];
+            final List<Integer> list = new ArrayList<Integer>(n);
+            for (int i = 0; i < n; i++) {
+                // outside the Integer cache, like indices and coordinates mostly are
+                array[i] = 1000 + random.nextInt(1 << 20);
+                list.add(array[i]);
+            }
+            final Mat m = Converters.vector_int_to_Mat(array, n);
+
+            DeviceBenchmark.measure("vector_int_to_Mat(List<Integer>) " + n, ITERATIONS[s], n, new Runnable() {
+                @Override
+                public void run() {
+                    Converters.vector_int_to_Mat(list).release();
+                }
+            });
+            DeviceBenchmark.measure("vector_int_to_Mat(int[], int) " + n, ITERATIONS[s], n, new Runnable() {
+                @Override
+                public void run() {
+                    Converters.vector_int_to_Mat(array, n).release();
+                }
+            });
+            final List<Integer> listOut = new ArrayList<Integer>(n);
+            DeviceBenchmark.measure("Mat_to_vector_int(Mat, List<Integer>) " + n, ITERATIONS[s], n, new Runnable() {
+                @Override
+                public void run() {
+                    Converters.Mat_to_vector_int(m, listOut);
+                }
+            });
+            final int[] arrayOut = new int[n];
+            DeviceBenchmark.Result primitive = DeviceBenchmark.measure("Mat_to_vector_int(Mat, int[]) " + n,
+                    ITERATIONS[s], n, new Runnable() {
+                @Override
+                public void run() {
+                    Converters.Mat_to_vector_int(m, arrayOut);
+                }
+            });
+            assertEquals(list, listOut);
+            assertEquals(array[n - 1], arrayOut[n - 1]);
+            assertEquals(0, primitive.objectsPerOp, 0.5);
+            m.release();
+        }
+    }
+}
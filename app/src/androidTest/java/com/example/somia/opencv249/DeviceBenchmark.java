@@ -0,0 +1,79 @@
+package com.example.somia.opencv249;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Timing loop of the instrumented benchmarks. They call into the native OpenCV library, which is
+ * only built for Android, so they run on a device instead of under JMH on the JVM. Results are
+ * logged under the Benchmark tag, see them with
+ *   adb logcat -s Benchmark
+ */
+final class DeviceBenchmark {
+    static final String TAG = "Benchmark";
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 9;
+
+    static final class Result {
+        // median of the timed rounds
+        final double nanosPerOp;
+        // Java heap allocations of the calling thread
+        final double bytesPerOp;
+        final double objectsPerOp;
+
+        Result(double nanosPerOp, double bytesPerOp, double objectsPerOp) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+            this.objectsPerOp = objectsPerOp;
+        }
+    }
+
+    private DeviceBenchmark() {
+    }
+
+    static Result measure(String name, int iterations, Runnable operation) {
+        return measure(name, iterations, 0, operation);
+    }
+
+    /**
+     * Runs rounds of iterations operations: warm-up rounds, timed rounds and a last round that
+     * counts the allocations, which slows it down. Logs and returns the result.
+     * @param elements - elements handled by one operation for the throughput, 0 for none
+     */
+    @SuppressWarnings("deprecation")
+    static Result measure(String name, int iterations, long elements, Runnable operation) {
+        for (int r = 0; r < WARMUP_ROUNDS; r++)
+            run(iterations, operation);
+
+        long[] rounds = new long[ROUNDS];
+        for (int r = 0; r < ROUNDS; r++)
+            rounds[r] = run(iterations, operation);
+        Arrays.sort(rounds);
+        double nanosPerOp = (double) rounds[ROUNDS / 2] / iterations;
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        run(iterations, operation);
+        Debug.stopAllocCounting();
+        Result result = new Result(nanosPerOp, (double) Debug.getThreadAllocSize() / iterations,
+                (double) Debug.getThreadAllocCount() / iterations);
+
+        String line = String.format(Locale.US, "%s: %.3f ms/op, %.0f B/op, %.1f objects/op",
+                name, nanosPerOp / 1e6, result.bytesPerOp, result.objectsPerOp);
+        if (elements > 0)
+            line += String.format(Locale.US, ", %.1f M elements/s", elements * 1e3 / nanosPerOp);
+        Log.i(TAG, line);
+        return result;
+    }
+
+    private static long run(int iterations, Runnable operation) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            operation.run();
+        return System.nanoTime() - start;
+    }
+}
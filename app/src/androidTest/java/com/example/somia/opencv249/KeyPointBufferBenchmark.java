@@ -0,0 +1,135 @@
+package com.example.somia.opencv249;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.DMatchBuffer;
+import org.opencv.core.KeyPointBuffer;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.features2d.DMatch;
+import org.opencv.features2d.KeyPoint;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reading every field of a frame's keypoints and matches through KeyPointBuffer and DMatchBuffer,
+ * against MatOfKeyPoint and MatOfDMatch toArray() and toList().
+ */
+@RunWith(AndroidJUnit4.class)
+public class KeyPointBufferBenchmark {
+    // ORB keeps 500 keypoints per frame by default
+    private static final int COUNT = 500;
+    private static final int ITERATIONS = 200;
+
+    private static MatOfKeyPoint keypoints;
+    private static MatOfDMatch matches;
+    private static final KeyPointBuffer keypointBuffer = new KeyPointBuffer();
+    private static final DMatchBuffer matchBuffer = new DMatchBuffer();
+    // keeps the reads from being optimized away
+    private static volatile double sink;
+
+    @BeforeClass
+    public static void setUp() {
+        assertTrue(OpenCVLoader.initDebug());
+        Random random = new Random(1);
+        KeyPointBuffer kp = new KeyPointBuffer();
+        DMatchBuffer dm = new DMatchBuffer();
+        for (int i = 0; i < COUNT; i++) {
+            kp.add(random.nextFloat() * 640, random.nextFloat() * 480, 31, random.nextFloat() * 360,
+                    random.nextFloat(), random.nextInt(8), -1);
+            dm.add(i, random.nextInt(10000), random.nextInt(100), random.nextInt(256));
+        }
+        keypoints = new MatOfKeyPoint();
+        kp.store(keypoints);
+        matches = new MatOfDMatch();
+        dm.store(matches);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        keypoints.release();
+        matches.release();
+    }
+
+    @Test
+    public void keypoints() {
+        double toArray = DeviceBenchmark.measure("MatOfKeyPoint.toArray()", ITERATIONS, COUNT, new Runnable() {
+            @Override
+            public void run() {
+                double sum = 0;
+                for (KeyPoint k : keypoints.toArray())
+                    sum += k.pt.x + k.pt.y + k.size + k.angle + k.response + k.octave + k.class_id;
+                sink = sum;
+            }
+        }).nanosPerOp;
+        DeviceBenchmark.measure("MatOfKeyPoint.toList()", ITERATIONS, COUNT, new Runnable() {
+            @Override
+            public void run() {
+                double sum = 0;
+                List<KeyPoint> list = keypoints.toList();
+                for (int i = 0; i < list.size(); i++) {
+                    KeyPoint k = list.get(i);
+                    sum += k.pt.x + k.pt.y + k.size + k.angle + k.response + k.octave + k.class_id;
+                }
+                sink = sum;
+            }
+        });
+        DeviceBenchmark.Result buffer = DeviceBenchmark.measure("KeyPointBuffer.load()", ITERATIONS, COUNT, new Runnable() {
+            @Override
+            public void run() {
+                double sum = 0;
+                KeyPointBuffer b = keypointBuffer.load(keypoints);
+                for (int i = 0; i < b.count(); i++)
+                    sum += b.x(i) + b.y(i) + b.size(i) + b.angle(i) + b.response(i) + b.octave(i) + b.classId(i);
+                sink = sum;
+            }
+        });
+        assertEquals(0, buffer.objectsPerOp, 0.5);
+        assertTrue(buffer.nanosPerOp < toArray);
+    }
+
+    @Test
+    public void matches() {
+        double toArray = DeviceBenchmark.measure("MatOfDMatch.toArray()", ITERATIONS, COUNT, new Runnable() {
+            @Override
+            public void run() {
+                double sum = 0;
+                for (DMatch m : matches.toArray())
+                    sum += m.queryIdx + m.trainIdx + m.imgIdx + m.distance;
+                sink = sum;
+            }
+        }).nanosPerOp;
+        DeviceBenchmark.measure("MatOfDMatch.toList()", ITERATIONS, COUNT, new Runnable() {
+            @Override
+            public void run() {
+                double sum = 0;
+                List<DMatch> list = matches.toList();
+                for (int i = 0; i < list.size(); i++) {
+                    DMatch m = list.get(i);
+                    sum += m.queryIdx + m.trainIdx + m.imgIdx + m.distance;
+                }
+                sink = sum;
+            }
+        });
+        DeviceBenchmark.Result buffer = DeviceBenchmark.measure("DMatchBuffer.load()", ITERATIONS, COUNT, new Runnable() {
+            @Override
+            public void run() {
+                double sum = 0;
+                DMatchBuffer b = matchBuffer.load(matches);
+                for (int i = 0; i < b.count(); i++)
+                    sum += b.queryIdx(i) + b.trainIdx(i) + b.imgIdx(i) + b.distance(i);
+                sink = sum;
+            }
+        });
+        assertEquals(0, buffer.objectsPerOp, 0.5);
+        assertTrue(buffer.nanosPerOp < toArray);
+    }
+}
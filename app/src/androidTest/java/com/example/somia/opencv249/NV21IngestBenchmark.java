@@ -0,0 +1,59 @@
+package com.example.somia.opencv249;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cost of the copy JavaCameraView does to ingest an NV21 preview frame into its frame Mat.
+ * Before the deferred ingestion the camera callback paid it for every preview frame while
+ * holding the view's monitor, now the processing thread pays it only for delivered frames.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NV21IngestBenchmark {
+    private static final int[][] FRAME_SIZES = { { 640, 480 }, { 1280, 720 }, { 1920, 1080 } };
+    private static final int FRAMES = 30;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void ingestFrame() {
+        for (int[] size : FRAME_SIZES) {
+            int width = size[0];
+            int height = size[1];
+            // as allocated by JavaCameraView.initializeCamera()
+            final byte[] frame = new byte[width * height * 3 / 2];
+            new Random(1).nextBytes(frame);
+            final Mat frameData = new Mat(height + (height / 2), width, CvType.CV_8UC1);
+
+            DeviceBenchmark.Result result = DeviceBenchmark.measure("NV21 ingest " + width + "x" + height,
+                    FRAMES, new Runnable() {
+                @Override
+                public void run() {
+                    frameData.put(0, 0, frame);
+                }
+            });
+            Log.i(DeviceBenchmark.TAG, String.format(Locale.US, "NV21 ingest %dx%d: %d bytes copied per frame, %.0f MB/s",
+                    width, height, frame.length, frame.length * 1e3 / result.nanosPerOp));
+
+            byte[] last = new byte[1];
+            frameData.get(frameData.rows() - 1, width - 1, last);
+            assertEquals(frame[frame.length - 1], last[0]);
+            frameData.release();
+        }
+    }
+}
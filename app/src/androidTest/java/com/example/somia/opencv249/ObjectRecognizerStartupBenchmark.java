@@ -0,0 +1,106 @@
+package com.example.somia.opencv249;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.somia.opencv249.object_recog.DescriptorIndex;
+import com.example.somia.opencv249.object_recog.ObjectRecognizer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Startup time of ObjectRecognizer for 10, 100 and 1000 objects, without the descriptor index,
+ * when every image is decoded and run through ORB, and with it, when all come from the index.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ObjectRecognizerStartupBenchmark {
+    private static final int[] OBJECT_COUNTS = { 10, 100, 1000 };
+    private static final int WARM_RUNS = 3;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void startup() throws IOException {
+        for (int count : OBJECT_COUNTS) {
+            File dir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "startup-" + count);
+            try {
+                writeTrainImages(dir, count);
+
+                long start = System.nanoTime();
+                ObjectRecognizer cold = new ObjectRecognizer(dir);
+                long coldNanos = System.nanoTime() - start;
+                assertEquals(count, cold.getObjectCount());
+                assertTrue(new File(dir, DescriptorIndex.FILE_NAME).exists());
+
+                long warmNanos = Long.MAX_VALUE;
+                for (int r = 0; r < WARM_RUNS; r++) {
+                    start = System.nanoTime();
+                    ObjectRecognizer warm = new ObjectRecognizer(dir);
+                    warmNanos = Math.min(warmNanos, System.nanoTime() - start);
+                    assertEquals(count, warm.getObjectCount());
+                }
+                Log.i(DeviceBenchmark.TAG, String.format(Locale.US,
+                        "ObjectRecognizer startup, %d objects: %d ms without the index, %d ms from the index",
+                        count, coldNanos / 1000000, warmNanos / 1000000));
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    // camera sized JPGs of random shapes, which give ORB plenty of corners
+    private static void writeTrainImages(File dir, int count) throws IOException {
+        delete(dir);
+        assertTrue(dir.mkdirs());
+        Random random = new Random(count);
+        Bitmap bitmap = Bitmap.createBitmap(1280, 960, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        for (int i = 0; i < count; i++) {
+            canvas.drawColor(0xff808080);
+            for (int s = 0; s < 150; s++) {
+                paint.setColor(0xff000000 | random.nextInt(0x1000000));
+                float x = random.nextInt(1280);
+                float y = random.nextInt(960);
+                if (random.nextBoolean())
+                    canvas.drawRect(x, y, x + 20 + random.nextInt(200), y + 20 + random.nextInt(200), paint);
+                else
+                    canvas.drawCircle(x, y, 10 + random.nextInt(100), paint);
+            }
+            FileOutputStream out = new FileOutputStream(new File(dir, String.format(Locale.US, "object%04d.jpg", i)));
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            } finally {
+                out.close();
+            }
+        }
+        bitmap.recycle();
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                f.delete();
+        }
+        dir.delete();
+    }
+}
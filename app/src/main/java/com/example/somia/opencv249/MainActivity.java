@@ -26,6 +26,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.somia.opencv249.object_recog.ObjectRecognizer;
+import com.example.somia.opencv249.object_recog.ObjectTracker;
+import com.example.somia.opencv249.object_recog.Recognition;
 import com.example.somia.opencv249.object_recog.Utilities;
 
 import org.opencv.android.BaseLoaderCallback;
@@ -34,30 +36,37 @@ import org.opencv.android.JavaCameraView;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
 
+import org.opencv.core.Core;
 import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public class MainActivity  extends Activity implements CameraBridgeViewBase.CvCameraViewListener2 {
 
     private Mat mRgba;
-    private Mat mGray;
 
     private CameraBridgeViewBase cameraView;
     private LinearLayout scrollLinearLayout;
 
     private Handler handler;
 
-    private String detectedObj;
+    private volatile String detectedObj;
     private String lastDetectedObj;
 
 //ORB
-    private ObjectRecognizer objectRecognizer;
+    private volatile ObjectRecognizer objectRecognizer;
+
+    // runs recognizer edits in order, off the UI thread
+    private ExecutorService recognizerEdits;
 
     private static final int CAPTURE_IMAGE = 100;
     private ArrayList<File> imageFiles;
@@ -68,8 +77,16 @@ public class MainActivity  extends Activity implements CameraBridgeViewBase.CvCa
         public void onManagerConnected(int status) {
             switch (status) {
                 case LoaderCallbackInterface.SUCCESS: {
+                    cameraView.enableAnalysis(recognitionStage);
                     cameraView.enableView();
-                    objectRecognizer = new ObjectRecognizer(getFilesDir());
+                    // the recognizer is kept up to date by addObject/removeObject, build it once.
+                    // Indexed objects are loaded here, new images are extracted in the background
+                    // and become recognizable one by one.
+                    if (objectRecognizer == null) {
+                        ObjectRecognizer recognizer = new ObjectRecognizer(getFilesDir(), true);
+                        recognizer.setGeometricVerification(true);
+                        objectRecognizer = recognizer;
+                    }
                 }
                 break;
                 default: {
@@ -92,6 +109,7 @@ public class MainActivity  extends Activity implements CameraBridgeViewBase.CvCa
         setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
 //For Backend and UI communication
         handler = new Handler();
+        recognizerEdits = Executors.newSingleThreadExecutor();
 
         cameraView = (CameraBridgeViewBase) findViewById(R.id.CameraView);
         scrollLinearLayout=(LinearLayout)findViewById(R.id.ScrollLinearLayout);
@@ -137,8 +155,11 @@ public class MainActivity  extends Activity implements CameraBridgeViewBase.CvCa
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (cameraView != null)
+        if (cameraView != null) {
             cameraView.disableView();
+            cameraView.disableAnalysis();
+        }
+        recognizerEdits.shutdown();
     }
 
     @Override
@@ -151,14 +172,64 @@ public class MainActivity  extends Activity implements CameraBridgeViewBase.CvCa
 
     @Override
     public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        // recognition runs in recognitionStage, keep the preview at camera rate
         mRgba = inputFrame.rgba();
-        mGray = inputFrame.gray();
+        return mRgba;
+    }
 
-        lastDetectedObj = detectedObj;
-        detectedObj = objectRecognizer.recognize(mGray);
-        handler.post(new EditViewRunnable());
+    // follows the recognized object between keyframes, only used on the analysis thread
+    private ObjectTracker tracker;
+    private static final int RECOGNITION_MAX_WIDTH = 960;
 
-        return mRgba;
+    // runs the recognizer on its own thread over the latest camera frame
+    private final CameraBridgeViewBase.CvCameraViewAnalyzer recognitionStage = new CameraBridgeViewBase.CvCameraViewAnalyzer() {
+        @Override
+        public CameraBridgeViewBase.CvCameraViewOverlay onAnalyzeFrame(CameraBridgeViewBase.CvCameraViewFrame frame) {
+            ObjectRecognizer recognizer = objectRecognizer;
+            if (recognizer == null) {
+                return null;
+            }
+            if (tracker == null) {
+                tracker = new ObjectTracker(recognizer);
+                // HD previews are recognized at half resolution, about the size of the train images
+                if (frame.gray().cols() > RECOGNITION_MAX_WIDTH) {
+                    tracker.setRecognitionLevel(1);
+                }
+            }
+
+            lastDetectedObj = detectedObj;
+            // full recognition only on keyframes or when the tracked object is lost
+            Recognition recognition = tracker.process(frame);
+            detectedObj = recognition == null ? "-" : recognition.name;
+            handler.post(new EditViewRunnable());
+
+            return recognition == null ? null : new DetectedObjOverlay(recognition);
+        }
+    };
+
+    // draws the name of the recognized object and its outline over the preview
+    private static class DetectedObjOverlay implements CameraBridgeViewBase.CvCameraViewOverlay {
+        private static final Scalar TEXT_COLOR = new Scalar(255, 255, 0, 255);
+        private static final Scalar OUTLINE_COLOR = new Scalar(0, 255, 0, 255);
+        private static final Point TEXT_ORIGIN = new Point(20, 60);
+
+        private final Recognition recognition;
+
+        DetectedObjOverlay(Recognition recognition) {
+            this.recognition = recognition;
+        }
+
+        @Override
+        public void draw(Mat frame) {
+            Core.putText(frame, recognition.name, TEXT_ORIGIN, Core.FONT_HERSHEY_SIMPLEX, 1.5, TEXT_COLOR, 3);
+            float[] c = recognition.corners;
+            if (c != null) {
+                for (int i = 0; i < 4; i++) {
+                    int j = (i + 1) % 4;
+                    Core.line(frame, new Point(c[2 * i], c[2 * i + 1]), new Point(c[2 * j], c[2 * j + 1]), OUTLINE_COLOR, 4);
+                }
+            }
+        }
     }
 
     private class EditViewRunnable implements Runnable {
@@ -234,7 +305,6 @@ public class MainActivity  extends Activity implements CameraBridgeViewBase.CvCa
                 deleteBtn.setOnClickListener(new View.OnClickListener() {
                     @Override
                     public void onClick(View v) {
-                        cameraView.disableView();
                         imageDialog.dismiss();
                         // delete file
                         File toBeDeteled = imageFiles.get(clickedImgIdx);
@@ -244,9 +314,17 @@ public class MainActivity  extends Activity implements CameraBridgeViewBase.CvCa
                         imageFiles.remove(clickedImgIdx);
                         scrollLinearLayout.removeViewAt(clickedImgIdx);
 
-                        // adjust recognizer
-                        objectRecognizer.removeObject(clickedImgIdx);
-                        cameraView.enableView();
+                        // adjust recognizer, the preview and the recognition keep running
+                        final String name = toBeDeteled.getName().substring(0, toBeDeteled.getName().lastIndexOf("."));
+                        final ObjectRecognizer recognizer = objectRecognizer;
+                        if (recognizer != null) {
+                            recognizerEdits.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    recognizer.removeObject(name);
+                                }
+                            });
+                        }
 
                         // if database gets empty insert zeroObjects textview
                         if (imageFiles.size() == 0) {
@@ -366,6 +444,18 @@ String hy="found";
                 int newFileIdx = imageFiles.indexOf(newFile);
                 addImageThumbnail(newFile, newFileIdx);
 
+                // apply change to recognizer
+                final File addedFile = newFile;
+                final ObjectRecognizer recognizer = objectRecognizer;
+                if (recognizer != null && newFile.exists()) {
+                    recognizerEdits.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            recognizer.addObject(addedFile);
+                        }
+                    });
+                }
+
 
             } else if (resultCode == RESULT_CANCELED) {
                 super.onActivityResult(requestCode, resultCode, data);
@@ -0,0 +1,509 @@
+package com.example.somia.opencv249.object_recog;
+
+import org.opencv.core.Mat;
+import org.opencv.features2d.BinaryDescriptorMatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Bag of visual words matching with an inverted file. Every descriptor is quantized to a visual
+ * word of a two level vocabulary sampled from the train descriptors, about one word per
+ * DESCRIPTORS_PER_WORD train descriptors up to maxVocabularySize, and the inverted file lists
+ * the train keypoints of every word.
+ * Objects are ranked by the idf weighted intersection of their word histogram with the one of
+ * the frame, normalized by the square root of their descriptor count, so words common to many
+ * objects weigh little and large objects do not win by size. Only the best candidates objects
+ * get matches, one per frame descriptor sharing a word with them, which the recognizer then
+ * counts as votes. Words found in more than half of the objects are skipped as stop words.
+ * Objects added or removed since the last train() only update their own postings, the whole
+ * file is rebuilt when the slots are compacted or the vocabulary is resampled, which happens
+ * each time the train set doubled. The matcher is not used. copy() shares the vocabulary and
+ * duplicates the inverted file, a plain array copy, so a copy never quantizes again.
+ */
+public class BagOfWordsStrategy implements MatchingStrategy {
+    public static final int DEFAULT_MAX_VOCABULARY_SIZE = 1 << 16;
+    public static final int DEFAULT_CANDIDATES = 8;
+
+    // train descriptors per visual word when the vocabulary is sampled
+    private static final int DESCRIPTORS_PER_WORD = 2;
+    // object count from which stop words are skipped
+    private static final int MIN_OBJECTS_FOR_STOP_WORDS = 8;
+
+    private final int maxVocabularySize;
+    private final int candidates;
+    private final Random random = new Random(0x5eed);
+    private final StageTimings timings;
+
+    private int descriptorBytes = -1;
+    private int words;
+    // the words of coarse cell c are [cellStart[c], cellStart[c + 1]), the first one is its center
+    private long[] vocabulary;
+    private int vocabularyCount;
+    private int[] cellStart;
+    private int cellCount;
+    // train descriptors the vocabulary was sampled from
+    private int vocabularySource;
+
+    // visual words of the descriptors of every train Mat indexed
+    private IdentityHashMap<Mat, int[]> trainWords = new IdentityHashMap<Mat, int[]>();
+    // slots as of the last train(), null for removed ones
+    private final ArrayList<Mat> indexedSlots = new ArrayList<Mat>();
+    private int[] slotSize = new int[0];
+    private boolean[] slotLive = new boolean[0];
+    private int liveSlots;
+
+    // inverted file, chained like the LshMatcher buckets: head[w] is the last posting of word w,
+    // next[p] the previous posting of the same word, -1 at the end. The postings of a slot are
+    // added together, so those of one word are consecutive in its chain.
+    private int[] head = new int[0];
+    private int[] next = new int[0];
+    private int[] postingSlot = new int[0];
+    private int[] postingTrainIdx = new int[0];
+    private int postingCount;
+    // number of live slots having each word
+    private int[] documentFrequency = new int[0];
+    private int[] wordMark = new int[0];
+    private int markStamp;
+
+    private long[] packed = new long[0];
+    private int[] queryWords = new int[0];
+    private int[] queryTf = new int[0];
+    private int[] distinctWords = new int[0];
+    private float[] scores = new float[0];
+    private int[] slotMark = new int[0];
+    private int[] lastQueryOfSlot = new int[0];
+    private final int[] bestSlots;
+    private final float[] bestScores;
+
+    public BagOfWordsStrategy() {
+        this(DEFAULT_MAX_VOCABULARY_SIZE, DEFAULT_CANDIDATES);
+    }
+
+    /**
+     * @param maxVocabularySize - upper bound of the number of visual words
+     * @param candidates - objects with the best scores that get matches on every frame
+     */
+    public BagOfWordsStrategy(int maxVocabularySize, int candidates) {
+        if (maxVocabularySize < 1)
+            throw new IllegalArgumentException("The vocabulary needs at least one word, got " + maxVocabularySize);
+        if (candidates < 1)
+            throw new IllegalArgumentException("At least one candidate is needed, got " + candidates);
+        this.maxVocabularySize = maxVocabularySize;
+        this.candidates = candidates;
+        bestSlots = new int[candidates];
+        bestScores = new float[candidates];
+        timings = new StageTimings();
+    }
+
+    // copies the vocabulary and the inverted file of other, but none of its match() buffers
+    private BagOfWordsStrategy(BagOfWordsStrategy other) {
+        maxVocabularySize = other.maxVocabularySize;
+        candidates = other.candidates;
+        bestSlots = new int[candidates];
+        bestScores = new float[candidates];
+        timings = other.timings;
+
+        descriptorBytes = other.descriptorBytes;
+        words = other.words;
+        // replaced, never modified, when the vocabulary is resampled
+        vocabulary = other.vocabulary;
+        vocabularyCount = other.vocabularyCount;
+        cellStart = other.cellStart;
+        cellCount = other.cellCount;
+        vocabularySource = other.vocabularySource;
+
+        trainWords = new IdentityHashMap<Mat, int[]>(other.trainWords);
+        indexedSlots.addAll(other.indexedSlots);
+        slotSize = other.slotSize.clone();
+        slotLive = other.slotLive.clone();
+        liveSlots = other.liveSlots;
+        head = other.head.clone();
+        next = other.next.clone();
+        postingSlot = other.postingSlot.clone();
+        postingTrainIdx = other.postingTrainIdx.clone();
+        postingCount = other.postingCount;
+        documentFrequency = other.documentFrequency.clone();
+        wordMark = new int[other.wordMark.length];
+        queryTf = new int[other.queryTf.length];
+    }
+
+    @Override
+    public String getName() {
+        return "bag of words";
+    }
+
+    public int getVocabularySize() {
+        return vocabularyCount;
+    }
+
+    @Override
+    public MatchingStrategy copy() {
+        return new BagOfWordsStrategy(this);
+    }
+
+    @Override
+    public void train(BinaryDescriptorMatcher matcher, List<Mat> slotDescriptors) {
+        int total = 0;
+        for (Mat m : slotDescriptors) {
+            if (m != null && !m.empty()) {
+                total += m.rows();
+                descriptorBytes = m.cols();
+            }
+        }
+
+        // resample while the train set is large compared to the vocabulary it gave
+        if (total > 0 && (vocabulary == null || (vocabularyCount < maxVocabularySize && total >= 2 * vocabularySource))) {
+            words = BinaryDescriptorMatcher.wordsPerDescriptor(descriptorBytes);
+            long[] all = packAll(slotDescriptors, total);
+            buildVocabulary(all, total);
+            trainWords.clear();
+            int offset = 0;
+            for (Mat m : slotDescriptors) {
+                if (m == null || m.empty())
+                    continue;
+                trainWords.put(m, quantize(all, offset, m.rows(), new int[m.rows()]));
+                offset += m.rows();
+            }
+            rebuild(slotDescriptors);
+            return;
+        }
+
+        if (!isAppendOf(slotDescriptors)) {
+            rebuild(slotDescriptors);
+            return;
+        }
+        for (int slot = 0; slot < indexedSlots.size(); slot++) {
+            if (indexedSlots.get(slot) != null && slotDescriptors.get(slot) == null)
+                removeSlot(slot);
+        }
+        for (int slot = indexedSlots.size(); slot < slotDescriptors.size(); slot++)
+            addSlot(slot, slotDescriptors.get(slot));
+    }
+
+    // true if the slots only changed by removals and additions at the end since the last train()
+    private boolean isAppendOf(List<Mat> slotDescriptors) {
+        if (slotDescriptors.size() < indexedSlots.size())
+            return false;
+        for (int slot = 0; slot < indexedSlots.size(); slot++) {
+            Mat m = slotDescriptors.get(slot);
+            if (m != null && m != indexedSlots.get(slot))
+                return false;
+        }
+        return true;
+    }
+
+    private long[] packAll(List<Mat> slotDescriptors, int total) {
+        long[] all = new long[total * words];
+        int offset = 0;
+        for (Mat m : slotDescriptors) {
+            if (m == null || m.empty())
+                continue;
+            packed = BinaryDescriptorMatcher.pack(m, packed);
+            System.arraycopy(packed, 0, all, offset, m.rows() * words);
+            offset += m.rows() * words;
+        }
+        return all;
+    }
+
+    /*
+     * Samples the words among the count descriptors of all. The first sampled descriptors are
+     * the centers of the coarse cells, every other one joins the cell of its nearest center, so
+     * that quantizing only compares a descriptor with the centers and the words of one cell.
+     */
+    private void buildVocabulary(long[] all, int count) {
+        int size = Math.max(1, Math.min(maxVocabularySize, count / DESCRIPTORS_PER_WORD));
+        int branching = (int) Math.ceil(Math.sqrt(size));
+
+        // partial Fisher-Yates shuffle of the descriptor indices
+        int[] index = new int[count];
+        for (int i = 0; i < count; i++)
+            index[i] = i;
+        for (int i = 0; i < size; i++) {
+            int j = i + random.nextInt(count - i);
+            int tmp = index[i];
+            index[i] = index[j];
+            index[j] = tmp;
+        }
+
+        int[] cell = new int[size];
+        int[] start = new int[branching + 1];
+        for (int i = 0; i < size; i++) {
+            if (i < branching) {
+                cell[i] = i;
+            } else {
+                int best = Integer.MAX_VALUE;
+                for (int c = 0; c < branching; c++) {
+                    int d = distance(all, index[i] * words, all, index[c] * words);
+                    if (d < best) {
+                        best = d;
+                        cell[i] = c;
+                    }
+                }
+            }
+            start[cell[i] + 1]++;
+        }
+        for (int c = 0; c < branching; c++)
+            start[c + 1] += start[c];
+
+        // centers come first in the sample, so they also come first in their cell
+        int[] fill = Arrays.copyOf(start, branching);
+        vocabulary = new long[size * words];
+        for (int i = 0; i < size; i++)
+            System.arraycopy(all, index[i] * words, vocabulary, fill[cell[i]]++ * words, words);
+        cellStart = start;
+        cellCount = branching;
+        vocabularyCount = size;
+        vocabularySource = count;
+    }
+
+    private int distance(long[] a, int aOffset, long[] b, int bOffset) {
+        int d = 0;
+        for (int w = 0; w < words; w++)
+            d += Long.bitCount(a[aOffset + w] ^ b[bOffset + w]);
+        return d;
+    }
+
+    // words of the count descriptors of descriptors starting at descriptor first
+    private int[] quantize(long[] descriptors, int first, int count, int[] out) {
+        for (int i = 0; i < count; i++) {
+            int d0 = (first + i) * words;
+            int cell = 0;
+            int best = Integer.MAX_VALUE;
+            for (int c = 0; c < cellCount; c++) {
+                int d = distance(descriptors, d0, vocabulary, cellStart[c] * words);
+                if (d < best) {
+                    best = d;
+                    cell = c;
+                }
+            }
+            int word = cellStart[cell];
+            for (int v = word + 1; v < cellStart[cell + 1]; v++) {
+                int d = distance(descriptors, d0, vocabulary, v * words);
+                if (d < best) {
+                    best = d;
+                    word = v;
+                }
+            }
+            out[i] = word;
+        }
+        return out;
+    }
+
+    // indexes every slot again from the cached words, quantizing only the new Mats
+    private void rebuild(List<Mat> slotDescriptors) {
+        if (head.length < vocabularyCount) {
+            head = new int[vocabularyCount];
+            documentFrequency = new int[vocabularyCount];
+            wordMark = new int[vocabularyCount];
+            queryTf = new int[vocabularyCount];
+        }
+        Arrays.fill(head, -1);
+        Arrays.fill(documentFrequency, 0);
+        postingCount = 0;
+        indexedSlots.clear();
+        liveSlots = 0;
+
+        IdentityHashMap<Mat, int[]> current = new IdentityHashMap<Mat, int[]>();
+        for (Mat m : slotDescriptors) {
+            if (m != null && trainWords.containsKey(m))
+                current.put(m, trainWords.get(m));
+        }
+        trainWords = current;
+        for (int slot = 0; slot < slotDescriptors.size(); slot++)
+            addSlot(slot, slotDescriptors.get(slot));
+    }
+
+    private void addSlot(int slot, Mat m) {
+        indexedSlots.add(m);
+        if (slotLive.length <= slot) {
+            int capacity = Math.max(16, (slot + 1) * 2);
+            slotLive = Arrays.copyOf(slotLive, capacity);
+            slotSize = Arrays.copyOf(slotSize, capacity);
+        }
+        slotLive[slot] = m != null;
+        slotSize[slot] = 0;
+        if (m == null)
+            return;
+        liveSlots++;
+        if (m.empty() || vocabulary == null)
+            return;
+
+        int[] w = trainWords.get(m);
+        if (w == null) {
+            packed = BinaryDescriptorMatcher.pack(m, packed);
+            w = quantize(packed, 0, m.rows(), new int[m.rows()]);
+            trainWords.put(m, w);
+        }
+        addPostings(slot, w);
+    }
+
+    private void addPostings(int slot, int[] w) {
+        slotSize[slot] = w.length;
+        ensurePostings(postingCount + w.length);
+        int stamp = ++markStamp;
+        for (int i = 0; i < w.length; i++) {
+            int word = w[i];
+            int p = postingCount++;
+            postingSlot[p] = slot;
+            postingTrainIdx[p] = i;
+            next[p] = head[word];
+            head[word] = p;
+            if (wordMark[word] != stamp) {
+                wordMark[word] = stamp;
+                documentFrequency[word]++;
+            }
+        }
+    }
+
+    // the postings of a removed slot stay until the next rebuild, they are skipped when voting
+    private void removeSlot(int slot) {
+        Mat m = indexedSlots.set(slot, null);
+        slotLive[slot] = false;
+        liveSlots--;
+        int[] w = trainWords.remove(m);
+        if (w == null)
+            return;
+        int stamp = ++markStamp;
+        for (int word : w) {
+            if (wordMark[word] != stamp) {
+                wordMark[word] = stamp;
+                documentFrequency[word]--;
+            }
+        }
+    }
+
+    private void ensurePostings(int count) {
+        if (postingSlot.length >= count)
+            return;
+        int capacity = Math.max(count, postingSlot.length * 3 / 2 + 16);
+        next = Arrays.copyOf(next, capacity);
+        postingSlot = Arrays.copyOf(postingSlot, capacity);
+        postingTrainIdx = Arrays.copyOf(postingTrainIdx, capacity);
+    }
+
+    // weight of a word, 0 for stop words and words of no live object
+    private float idf(int word) {
+        int df = documentFrequency[word];
+        if (df == 0 || (liveSlots >= MIN_OBJECTS_FOR_STOP_WORDS && 2 * df > liveSlots))
+            return 0;
+        return (float) Math.log(1 + (double) liveSlots / df);
+    }
+
+    @Override
+    public void match(Mat descriptors, BinaryDescriptorMatcher matcher, MatchSet matches) {
+        int n = descriptors.rows();
+        if (n == 0 || descriptors.empty() || vocabulary == null || descriptors.cols() != descriptorBytes)
+            return;
+
+        long start = System.nanoTime();
+        packed = BinaryDescriptorMatcher.pack(descriptors, packed);
+        if (queryWords.length < n) {
+            queryWords = new int[n];
+            distinctWords = new int[n];
+        }
+        quantize(packed, 0, n, queryWords);
+        long quantizeEnd = System.nanoTime();
+        timings.record("quantize", quantizeEnd - start);
+
+        int selected = score(n);
+        long scoreEnd = System.nanoTime();
+        timings.record("score", scoreEnd - quantizeEnd);
+
+        vote(n, selected, matches);
+        timings.record("vote", System.nanoTime() - scoreEnd);
+    }
+
+    /*
+     * Scores every live slot with the idf weighted intersection of the word histograms and keeps
+     * the best candidates slots in bestSlots, returns their number.
+     */
+    private int score(int n) {
+        int slotCount = indexedSlots.size();
+        if (scores.length < slotCount) {
+            scores = new float[slotCount];
+            slotMark = new int[slotCount];
+            lastQueryOfSlot = new int[slotCount];
+        }
+        Arrays.fill(scores, 0, slotCount, 0);
+
+        // term frequencies of the frame
+        int stamp = ++markStamp;
+        int distinct = 0;
+        for (int q = 0; q < n; q++) {
+            int w = queryWords[q];
+            if (wordMark[w] != stamp) {
+                wordMark[w] = stamp;
+                queryTf[w] = 0;
+                distinctWords[distinct++] = w;
+            }
+            queryTf[w]++;
+        }
+
+        for (int i = 0; i < distinct; i++) {
+            int w = distinctWords[i];
+            float idf = idf(w);
+            if (idf == 0)
+                continue;
+            int tf = queryTf[w];
+            int p = head[w];
+            while (p >= 0) {
+                int slot = postingSlot[p];
+                int run = 0;
+                while (p >= 0 && postingSlot[p] == slot) {
+                    run++;
+                    p = next[p];
+                }
+                if (slotLive[slot])
+                    scores[slot] += idf * Math.min(tf, run);
+            }
+        }
+
+        int selected = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (scores[slot] == 0)
+                continue;
+            float s = scores[slot] / (float) Math.sqrt(slotSize[slot]);
+            if (selected == candidates && s <= bestScores[selected - 1])
+                continue;
+            int j = selected < candidates ? selected++ : candidates - 1;
+            while (j > 0 && bestScores[j - 1] < s) {
+                bestScores[j] = bestScores[j - 1];
+                bestSlots[j] = bestSlots[j - 1];
+                j--;
+            }
+            bestScores[j] = s;
+            bestSlots[j] = slot;
+        }
+        return selected;
+    }
+
+    // one match per frame descriptor and selected slot sharing its word
+    private void vote(int n, int selected, MatchSet matches) {
+        int stamp = ++markStamp;
+        for (int i = 0; i < selected; i++) {
+            slotMark[bestSlots[i]] = stamp;
+            lastQueryOfSlot[bestSlots[i]] = -1;
+        }
+        for (int q = 0; q < n; q++) {
+            int w = queryWords[q];
+            if (idf(w) == 0)
+                continue;
+            for (int p = head[w]; p >= 0; p = next[p]) {
+                int slot = postingSlot[p];
+                if (slotMark[slot] != stamp || lastQueryOfSlot[slot] == q)
+                    continue;
+                lastQueryOfSlot[slot] = q;
+                matches.add(q, postingTrainIdx[p], slot);
+            }
+        }
+    }
+
+    @Override
+    public StageTimings getTimings() {
+        return timings;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.somia.opencv249.object_recog;
+
+import org.opencv.core.Mat;
+import org.opencv.features2d.BinaryDescriptorMatcher;
+import org.opencv.features2d.HammingMatcher;
+
+import java.util.List;
+
+/**
+ * Keeps a frame descriptor and its nearest train descriptor only when the frame descriptor is in
+ * turn the nearest one of the train descriptor among the frame descriptors (mutual nearest
+ * neighbours), like the crossCheck option of the OpenCV brute-force matcher.
+ */
+public class CrossCheckStrategy implements MatchingStrategy {
+    private final StageTimings timings = new StageTimings();
+    // frame descriptors as a train set, searched from the train side on the calling thread
+    private final HammingMatcher reverseMatcher = new HammingMatcher(null, 1);
+
+    private long[] query = new long[0];
+    private long[] candidates = new long[0];
+    private int[] candidateQuery = new int[0];
+    private int[] forwardRow = new int[0];
+    private int[] forwardDistance = new int[0];
+    private int[] reverseRow = new int[0];
+    private int[] reverseDistance = new int[0];
+
+    @Override
+    public String getName() {
+        return "cross check";
+    }
+
+    // no train state, this instance can be trained while it matches
+    @Override
+    public MatchingStrategy copy() {
+        return this;
+    }
+
+    @Override
+    public void train(BinaryDescriptorMatcher matcher, List<Mat> slotDescriptors) {
+    }
+
+    @Override
+    public void match(Mat descriptors, BinaryDescriptorMatcher matcher, MatchSet matches) {
+        int n = descriptors.rows();
+        if (n == 0 || descriptors.empty() || matcher.empty())
+            return;
+
+        long start = System.nanoTime();
+        query = BinaryDescriptorMatcher.pack(descriptors, query);
+        if (forwardRow.length < n) {
+            forwardRow = new int[n];
+            forwardDistance = new int[n];
+            reverseRow = new int[n];
+            reverseDistance = new int[n];
+            candidateQuery = new int[n];
+        }
+        matcher.knnMatch(query, n, 1, forwardRow, forwardDistance);
+        long forwardEnd = System.nanoTime();
+        timings.record("forward", forwardEnd - start);
+
+        int words = BinaryDescriptorMatcher.wordsPerDescriptor(descriptors.cols());
+        if (candidates.length < n * words)
+            candidates = new long[n * words];
+        int m = 0;
+        for (int q = 0; q < n; q++) {
+            if (forwardRow[q] < 0)
+                continue;
+            matcher.getPackedDescriptor(forwardRow[q], candidates, m * words);
+            candidateQuery[m++] = q;
+        }
+        reverseMatcher.clear();
+        reverseMatcher.add(query, n, descriptors.cols());
+        reverseMatcher.knnMatch(candidates, m, 1, reverseRow, reverseDistance);
+
+        for (int i = 0; i < m; i++) {
+            int q = candidateQuery[i];
+            if (reverseRow[i] == q) {
+                int t = forwardRow[q];
+                matches.add(q, matcher.getTrainIdx(t), matcher.getImgIdx(t));
+            }
+        }
+        timings.record("reverse", System.nanoTime() - forwardEnd);
+    }
+
+    @Override
+    public StageTimings getTimings() {
+        return timings;
+    }
+}
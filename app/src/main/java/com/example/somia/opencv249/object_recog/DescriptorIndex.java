@@ -0,0 +1,321 @@
+package com.example.somia.opencv249.object_recog;
+
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Keypoints and descriptors of the train images, persisted next to the images so that
+ * unchanged objects do not have to be decoded and run through ORB again at startup.
+ * An entry is valid as long as the length and the modification time of its image match.
+ * The index keeps its own copy of the features, the mapped file for loaded entries and heap
+ * buffers for the ones given to put(), so it never shares a Mat with the caller.
+ *
+ * File layout, little endian:
+ *   int magic, int version, int entry count, then per entry
+ *   int name length, name bytes (UTF-8), long image length, long image mtime,
+ *   int keypoint count, int descriptor rows, int descriptor cols,
+ *   keypoint count * 7 floats (MatOfKeyPoint layout), rows * cols descriptor bytes (CV_8UC1)
+ */
+public class DescriptorIndex {
+    private static final String TAG = "DescriptorIndex";
+
+    public static final String FILE_NAME = "descriptors.idx";
+
+    private static final int MAGIC = 0x4f524249; // "ORBI"
+    // bump when the detector/extractor parameters, the train image decoding or the layout change
+    // 2: train images decoded with BitmapFactory and inSampleSize instead of imread
+    private static final int VERSION = 2;
+    private static final int KEYPOINT_CHANNELS = 7;
+
+    private final File file;
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+    private boolean dirty;
+
+    private DescriptorIndex(File file) {
+        this.file = file;
+    }
+
+    public static class Entry {
+        final String name;
+        final long imageLength;
+        final long imageModified;
+        final int keypointCount;
+        final int rows;
+        final int cols;
+        // little endian, the whole buffer is the data, read through duplicates only
+        final ByteBuffer keypointData;
+        final ByteBuffer descriptorData;
+
+        Entry(String name, long imageLength, long imageModified, int keypointCount, int rows, int cols,
+              ByteBuffer keypointData, ByteBuffer descriptorData) {
+            this.name = name;
+            this.imageLength = imageLength;
+            this.imageModified = imageModified;
+            this.keypointCount = keypointCount;
+            this.rows = rows;
+            this.cols = cols;
+            this.keypointData = keypointData;
+            this.descriptorData = descriptorData;
+        }
+
+        /**
+         * @return a new MatOfKeyPoint owned by the caller
+         */
+        public MatOfKeyPoint keypoints() {
+            MatOfKeyPoint keypoints = new MatOfKeyPoint();
+            if (keypointCount > 0) {
+                keypoints.alloc(keypointCount);
+                keypoints.put(0, 0, keypointData.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+            }
+            return keypoints;
+        }
+
+        /**
+         * @return a new CV_8UC1 Mat owned by the caller
+         */
+        public Mat descriptors() {
+            Mat descriptors = new Mat();
+            if (rows > 0 && cols > 0) {
+                descriptors.create(rows, cols, CvType.CV_8UC1);
+                descriptors.put(0, 0, descriptorData.duplicate());
+            }
+            return descriptors;
+        }
+    }
+
+    /**
+     * Maps the index file and loads every entry. A missing, truncated or outdated
+     * file gives an empty index, which is rebuilt by the next save().
+     */
+    public static DescriptorIndex load(File file) {
+        DescriptorIndex index = new DescriptorIndex(file);
+        if (!file.exists()) {
+            index.dirty = true;
+            return index;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            index.read(buffer);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read " + file + ", rebuilding it", e);
+            index.clear();
+        } catch (BufferUnderflowException e) {
+            Log.w(TAG, file + " is truncated, rebuilding it");
+            index.clear();
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, file + " is corrupted, rebuilding it");
+            index.clear();
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // nothing to do, the mapping stays valid
+                }
+            }
+        }
+        return index;
+    }
+
+    private void read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            dirty = true;
+            return;
+        }
+        int count = buffer.getInt();
+        byte[] nameBytes = new byte[256];
+        for (int i = 0; i < count; i++) {
+            int nameLength = buffer.getInt();
+            if (nameLength < 0 || nameLength > 4096)
+                throw new IllegalArgumentException("name length " + nameLength);
+            if (nameBytes.length < nameLength)
+                nameBytes = new byte[nameLength];
+            buffer.get(nameBytes, 0, nameLength);
+            String name = new String(nameBytes, 0, nameLength, UTF_8);
+            long imageLength = buffer.getLong();
+            long imageModified = buffer.getLong();
+            int keypointCount = buffer.getInt();
+            int rows = buffer.getInt();
+            int cols = buffer.getInt();
+            if (keypointCount < 0 || rows < 0 || cols < 0)
+                throw new IllegalArgumentException("negative size");
+
+            // the entries keep views of the mapping, Mats are only created by get()
+            ByteBuffer keypointData = region(buffer, (long) keypointCount * KEYPOINT_CHANNELS * 4);
+            ByteBuffer descriptorData = region(buffer, (long) rows * cols);
+            entries.put(name, new Entry(name, imageLength, imageModified, keypointCount, rows, cols,
+                    keypointData, descriptorData));
+        }
+    }
+
+    // returns the next length bytes of buffer as a buffer of their own and skips them
+    private static ByteBuffer region(ByteBuffer buffer, long length) {
+        if (length > buffer.remaining())
+            throw new BufferUnderflowException();
+        ByteBuffer src = buffer.slice();
+        src.limit((int) length);
+        src.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(buffer.position() + (int) length);
+        return src;
+    }
+
+    /**
+     * @return the entry of image if it is still up to date, null otherwise; its Mats are
+     * created on every call and belong to the caller
+     */
+    public Entry get(File image) {
+        Entry e = entries.get(image.getName());
+        if (e == null || e.imageLength != image.length() || e.imageModified != image.lastModified())
+            return null;
+        return e;
+    }
+
+    /**
+     * Stores a copy of the features of image, replacing an outdated entry. The caller keeps
+     * owning keypoints and descriptors, they must not change until put() returns.
+     * Descriptors other than CV_8UC1 cannot be written and only drop the outdated entry.
+     */
+    public void put(File image, MatOfKeyPoint keypoints, Mat descriptors) {
+        dirty = true;
+        if (!descriptors.empty() && descriptors.type() != CvType.CV_8UC1) {
+            entries.remove(image.getName());
+            return;
+        }
+        int keypointCount = (int) keypoints.total();
+        int rows = descriptors.rows();
+        int cols = descriptors.cols();
+        ByteBuffer keypointData = ByteBuffer.allocate(keypointCount * KEYPOINT_CHANNELS * 4).order(ByteOrder.LITTLE_ENDIAN);
+        if (keypointCount > 0)
+            keypoints.get(0, 0, keypointData.asFloatBuffer());
+        ByteBuffer descriptorData = ByteBuffer.allocate(rows * cols);
+        if (rows * cols > 0) {
+            descriptors.get(0, 0, descriptorData);
+            descriptorData.clear();
+        }
+        entries.put(image.getName(), new Entry(image.getName(), image.length(), image.lastModified(),
+                keypointCount, rows, cols, keypointData, descriptorData));
+    }
+
+    /**
+     * Drops the entries of images that are not in images any more.
+     */
+    public void retain(ArrayList<File> images) {
+        HashMap<String, File> names = new HashMap<String, File>();
+        for (File image : images)
+            names.put(image.getName(), image);
+
+        ArrayList<String> stale = new ArrayList<String>();
+        for (String name : entries.keySet()) {
+            if (!names.containsKey(name))
+                stale.add(name);
+        }
+        for (String name : stale) {
+            entries.remove(name);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Drops the entry of the named object.
+     * @return true if there was one
+     */
+    public boolean remove(String name) {
+        for (String fileName : entries.keySet()) {
+            if (fileName.startsWith(name) && fileName.lastIndexOf('.') == name.length()) {
+                entries.remove(fileName);
+                dirty = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the index if it changed since it was loaded. The file is replaced atomically,
+     * a failure leaves the previous index in place.
+     */
+    public void save() {
+        if (!dirty)
+            return;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            FileChannel channel = out.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(entries.size());
+            header.flip();
+            writeFully(channel, header);
+
+            for (Entry e : entries.values()) {
+                byte[] name = e.name.getBytes(UTF_8);
+                ByteBuffer buffer = ByteBuffer.allocate(4 + name.length + 8 + 8 + 12).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(name.length).put(name);
+                buffer.putLong(e.imageLength).putLong(e.imageModified);
+                buffer.putInt(e.keypointCount).putInt(e.rows).putInt(e.cols);
+                buffer.flip();
+                writeFully(channel, buffer);
+                writeFully(channel, e.keypointData.duplicate());
+                writeFully(channel, e.descriptorData.duplicate());
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Cannot replace " + file);
+                tmp.delete();
+                return;
+            }
+            dirty = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write " + file, e);
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // already failed
+                }
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    private void clear() {
+        entries.clear();
+        dirty = true;
+    }
+
+    private static final String UTF_8 = "UTF-8";
+}
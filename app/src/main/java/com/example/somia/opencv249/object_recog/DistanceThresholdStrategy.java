@@ -0,0 +1,63 @@
+package com.example.somia.opencv249.object_recog;
+
+import org.opencv.core.DMatchBuffer;
+import org.opencv.core.Mat;
+import org.opencv.features2d.BinaryDescriptorMatcher;
+
+import java.util.List;
+
+/**
+ * Keeps the nearest train descriptor of a frame descriptor when their Hamming distance is at most
+ * maxDistance. The cheapest strategy, a single neighbour is searched per descriptor.
+ */
+public class DistanceThresholdStrategy implements MatchingStrategy {
+    // bits out of the 256 of an ORB descriptor
+    public static final int DEFAULT_MAX_DISTANCE = 48;
+
+    private final int maxDistance;
+    private final DMatchBuffer nearest = new DMatchBuffer();
+    private final StageTimings timings = new StageTimings();
+
+    public DistanceThresholdStrategy() {
+        this(DEFAULT_MAX_DISTANCE);
+    }
+
+    public DistanceThresholdStrategy(int maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    @Override
+    public String getName() {
+        return "distance threshold";
+    }
+
+    // no train state, this instance can be trained while it matches
+    @Override
+    public MatchingStrategy copy() {
+        return this;
+    }
+
+    @Override
+    public void train(BinaryDescriptorMatcher matcher, List<Mat> slotDescriptors) {
+    }
+
+    @Override
+    public void match(Mat descriptors, BinaryDescriptorMatcher matcher, MatchSet matches) {
+        long start = System.nanoTime();
+        matcher.knnMatch(descriptors, 1, nearest);
+        long knnEnd = System.nanoTime();
+        timings.record("knn", knnEnd - start);
+
+        int n = nearest.count();
+        for (int i = 0; i < n; i++) {
+            if (nearest.distance(i) <= maxDistance)
+                matches.add(nearest.queryIdx(i), nearest.trainIdx(i), nearest.imgIdx(i));
+        }
+        timings.record("filter", System.nanoTime() - knnEnd);
+    }
+
+    @Override
+    public StageTimings getTimings() {
+        return timings;
+    }
+}
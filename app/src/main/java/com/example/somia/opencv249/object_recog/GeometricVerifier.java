@@ -0,0 +1,225 @@
+package com.example.somia.opencv249.object_recog;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.KeyPointBuffer;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.MatOfPoint2f;
+
+import java.util.ArrayList;
+
+/**
+ * Checks that the matches voting for an object agree on one homography from the train image to
+ * the frame. Only the top-K candidates by votes are checked, best first, and the search stops as
+ * soon as no remaining candidate could have more inliers than the best one so far, since an
+ * object never has more inliers than votes.
+ * Not thread safe, ObjectRecognizer calls it under its matcher lock.
+ */
+class GeometricVerifier {
+
+    // max distance in pixels between a projected train keypoint and its match to be an inlier
+    public static final double REPROJECTION_THRESHOLD = 5.0;
+    // inliers needed to accept an object
+    public static final int MIN_INLIERS = 12;
+
+    private final int topK;
+    private final int[] candidates;
+
+    // reused point buffers, allocated outside any MatScope so they survive the frame
+    private final MatOfPoint2f trainPoints = new MatOfPoint2f();
+    private final MatOfPoint2f framePoints = new MatOfPoint2f();
+    private final Mat inlierMask = new Mat();
+    private final MatOfPoint2f trainCorners = new MatOfPoint2f();
+    private final MatOfPoint2f frameCorners = new MatOfPoint2f();
+    private final KeyPointBuffer queryKeypoints = new KeyPointBuffer();
+    private final KeyPointBuffer candidateKeypoints = new KeyPointBuffer();
+    private float[] trainXY = new float[0];
+    private float[] frameXY = new float[0];
+    private int candidatePoints;
+    private byte[] mask = new byte[0];
+
+    // inlier pairs of the best candidate so far
+    private float[] inlierTrainXY = new float[0];
+    private float[] inlierFrameXY = new float[0];
+
+    private int inliers;
+    private final float[] corners = new float[8];
+
+    GeometricVerifier(int topK) {
+        this.topK = topK;
+        candidates = new int[topK];
+        float w = (float) Utilities.TRAIN_IMAGE_SIZE.width;
+        float h = (float) Utilities.TRAIN_IMAGE_SIZE.height;
+        trainCorners.alloc(4);
+        trainCorners.put(0, 0, new float[] { 0, 0, w, 0, w, h, 0, h });
+    }
+
+    /**
+     * @param votes - number of good matches per slot
+     * @param trainKeypoints - keypoints per slot, null for removed objects
+     * @return the slot of the verified object with the most inliers, -1 if none has MIN_INLIERS
+     */
+    int verify(int[] votes, ArrayList<MatOfKeyPoint> trainKeypoints, MatOfKeyPoint frameKeypoints, MatchSet matches) {
+        int numCandidates = topCandidates(votes, trainKeypoints);
+        inliers = 0;
+        if (numCandidates == 0)
+            return -1;
+
+        queryKeypoints.load(frameKeypoints);
+        int best = -1;
+        for (int c = 0; c < numCandidates; c++) {
+            int slot = candidates[c];
+            if (inliers >= MIN_INLIERS && votes[slot] <= inliers)
+                break; // no remaining candidate can win
+            int slotInliers = verifyCandidate(slot, trainKeypoints.get(slot), matches);
+            if (slotInliers > inliers) {
+                inliers = slotInliers;
+                best = slot;
+                frameCorners.get(0, 0, corners);
+                keepInliers();
+            }
+        }
+        if (inliers < MIN_INLIERS)
+            return -1;
+        return best;
+    }
+
+    int getInliers() {
+        return inliers;
+    }
+
+    /**
+     * @return x, y in the train image of the inliers of the object returned by the last verify()
+     */
+    float[] getInlierTrainPoints() {
+        float[] points = new float[2 * inliers];
+        System.arraycopy(inlierTrainXY, 0, points, 0, 2 * inliers);
+        return points;
+    }
+
+    /**
+     * @return x, y in the frame of the inliers of the object returned by the last verify()
+     */
+    float[] getInlierFramePoints() {
+        float[] points = new float[2 * inliers];
+        System.arraycopy(inlierFrameXY, 0, points, 0, 2 * inliers);
+        return points;
+    }
+
+    /**
+     * @return corners of the object returned by the last verify(), x, y clockwise from top-left
+     */
+    float[] getCorners() {
+        return corners.clone();
+    }
+
+    // fills candidates with the topK slots by votes among those with MIN_INLIERS votes, best first
+    private int topCandidates(int[] votes, ArrayList<MatOfKeyPoint> trainKeypoints) {
+        int n = 0;
+        for (int slot = 0; slot < trainKeypoints.size(); slot++) {
+            if (votes[slot] < MIN_INLIERS || trainKeypoints.get(slot) == null)
+                continue;
+            int j;
+            if (n < topK)
+                j = n++;
+            else if (votes[slot] > votes[candidates[topK - 1]])
+                j = topK - 1;
+            else
+                continue;
+            while (j > 0 && votes[candidates[j - 1]] < votes[slot]) {
+                candidates[j] = candidates[j - 1];
+                j--;
+            }
+            candidates[j] = slot;
+        }
+        return n;
+    }
+
+    private int verifyCandidate(int slot, MatOfKeyPoint slotKeypoints, MatchSet matches) {
+        candidateKeypoints.load(slotKeypoints);
+        int numGood = matches.count();
+        if (trainXY.length < 2 * numGood) {
+            trainXY = new float[2 * numGood];
+            frameXY = new float[2 * numGood];
+        }
+        int n = 0;
+        for (int i = 0; i < numGood; i++) {
+            if (matches.imgIdx(i) != slot)
+                continue;
+            trainXY[2 * n] = candidateKeypoints.x(matches.trainIdx(i));
+            trainXY[2 * n + 1] = candidateKeypoints.y(matches.trainIdx(i));
+            frameXY[2 * n] = queryKeypoints.x(matches.queryIdx(i));
+            frameXY[2 * n + 1] = queryKeypoints.y(matches.queryIdx(i));
+            n++;
+        }
+        candidatePoints = n;
+        if (n < MIN_INLIERS)
+            return 0;
+
+        trainPoints.alloc(n);
+        trainPoints.put(0, 0, trainXY, 0, 2 * n);
+        framePoints.alloc(n);
+        framePoints.put(0, 0, frameXY, 0, 2 * n);
+
+        Mat homography = Calib3d.findHomography(trainPoints, framePoints, Calib3d.RANSAC, REPROJECTION_THRESHOLD, inlierMask);
+        try {
+            if (homography.empty() || inlierMask.empty())
+                return 0;
+            Core.perspectiveTransform(trainCorners, frameCorners, homography);
+            if (frameCorners.type() != CvType.CV_32FC2)
+                return 0;
+            frameCorners.get(0, 0, quad);
+            if (!isConvex(quad))
+                return 0; // degenerate or self-intersecting projection, not a view of the object
+            return Core.countNonZero(inlierMask);
+        } finally {
+            homography.release();
+        }
+    }
+
+    // copies the pairs of the last verified candidate that the RANSAC mask marks as inliers
+    private void keepInliers() {
+        int n = candidatePoints;
+        if (mask.length < n)
+            mask = new byte[n];
+        inlierMask.get(0, 0, mask, 0, n);
+        if (inlierTrainXY.length < 2 * n) {
+            inlierTrainXY = new float[2 * n];
+            inlierFrameXY = new float[2 * n];
+        }
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (mask[i] == 0)
+                continue;
+            inlierTrainXY[2 * m] = trainXY[2 * i];
+            inlierTrainXY[2 * m + 1] = trainXY[2 * i + 1];
+            inlierFrameXY[2 * m] = frameXY[2 * i];
+            inlierFrameXY[2 * m + 1] = frameXY[2 * i + 1];
+            m++;
+        }
+    }
+
+    private final float[] quad = new float[8];
+
+    /**
+     * @param quad - x, y of 4 points in order
+     * @return whether the points form a convex, non degenerate quadrilateral
+     */
+    static boolean isConvex(float[] quad) {
+        int sign = 0;
+        for (int i = 0; i < 4; i++) {
+            float ax = quad[2 * ((i + 1) % 4)] - quad[2 * i];
+            float ay = quad[2 * ((i + 1) % 4) + 1] - quad[2 * i + 1];
+            float bx = quad[2 * ((i + 2) % 4)] - quad[2 * ((i + 1) % 4)];
+            float by = quad[2 * ((i + 2) % 4) + 1] - quad[2 * ((i + 1) % 4) + 1];
+            float cross = ax * by - ay * bx;
+            int s = cross > 0 ? 1 : (cross < 0 ? -1 : 0);
+            if (s == 0 || (sign != 0 && s != sign))
+                return false;
+            sign = s;
+        }
+        return true;
+    }
+}
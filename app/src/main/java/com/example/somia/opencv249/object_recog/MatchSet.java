@@ -0,0 +1,56 @@
+package com.example.somia.opencv249.object_recog;
+
+import java.util.Arrays;
+
+/**
+ * Frame to train correspondences kept by a MatchingStrategy, stored in primitive arrays that
+ * are reused from frame to frame.
+ */
+public class MatchSet {
+    private int[] queryIdx;
+    private int[] trainIdx;
+    private int[] imgIdx;
+    private int count;
+
+    public MatchSet(int capacity) {
+        queryIdx = new int[capacity];
+        trainIdx = new int[capacity];
+        imgIdx = new int[capacity];
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public void add(int queryIdx, int trainIdx, int imgIdx) {
+        if (count == this.queryIdx.length) {
+            int capacity = Math.max(16, count * 2);
+            this.queryIdx = Arrays.copyOf(this.queryIdx, capacity);
+            this.trainIdx = Arrays.copyOf(this.trainIdx, capacity);
+            this.imgIdx = Arrays.copyOf(this.imgIdx, capacity);
+        }
+        this.queryIdx[count] = queryIdx;
+        this.trainIdx[count] = trainIdx;
+        this.imgIdx[count] = imgIdx;
+        count++;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    // index of the frame keypoint
+    public int queryIdx(int i) {
+        return queryIdx[i];
+    }
+
+    // index of the keypoint in its train image
+    public int trainIdx(int i) {
+        return trainIdx[i];
+    }
+
+    // slot of the train image
+    public int imgIdx(int i) {
+        return imgIdx[i];
+    }
+}
@@ -4,6 +4,44 @@ package com.example.somia.opencv249.object_recog;
  * Created by Somia on 10/22/2017.
  */
 
-public enum MatchingStrategy { //enum consists of special type of constants
-    RATIO_TEST
+import org.opencv.core.Mat;
+import org.opencv.features2d.BinaryDescriptorMatcher;
+
+import java.util.List;
+
+/**
+ * Turns the descriptors of a frame into correspondences with the train images, which then
+ * vote for the recognized object. ObjectRecognizer calls match() under its matcher lock. When
+ * the train set changes it trains a copy() outside of the lock, one edit at a time, while this
+ * strategy may keep matching frames, and then replaces this strategy by the copy. So train()
+ * is never called on a strategy that is matching, and implementations need no synchronization
+ * of their own besides their timings.
+ */
+public interface MatchingStrategy {
+
+    String getName();
+
+    /**
+     * @return an instance with the same parameters and a copy of the train state, which train()
+     * then only has to update; strategies without train state may return this. Only reads the
+     * train state, as match() may run meanwhile.
+     */
+    MatchingStrategy copy();
+
+    /**
+     * Called whenever the train set changed.
+     * @param matcher - matcher holding the descriptors of every slot, the slot is the imgIdx
+     * @param slotDescriptors - descriptors per slot, null for removed objects
+     */
+    void train(BinaryDescriptorMatcher matcher, List<Mat> slotDescriptors);
+
+    /**
+     * Fills matches with the correspondences of the frame descriptors.
+     */
+    void match(Mat descriptors, BinaryDescriptorMatcher matcher, MatchSet matches);
+
+    /**
+     * @return durations of the stages of match()
+     */
+    StageTimings getTimings();
 }
@@ -1,156 +1,585 @@
 package com.example.somia.opencv249.object_recog;
 
+import android.os.Debug;
 import android.util.Log;
 
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfDMatch;
+import org.opencv.core.CvType;
+import org.opencv.core.KeyPointBuffer;
 import org.opencv.core.MatOfKeyPoint;
-import org.opencv.features2d.DMatch;
+import org.opencv.core.MatPool;
+import org.opencv.core.MatScope;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.features2d.BinaryDescriptorMatcher;
 import org.opencv.features2d.DescriptorExtractor;
-import org.opencv.features2d.DescriptorMatcher;
 import org.opencv.features2d.FeatureDetector;
+import org.opencv.features2d.HammingMatcher;
+import org.opencv.features2d.LshMatcher;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ObjectRecognizer {
 
 
     private FeatureDetector featureDetector;
     private DescriptorExtractor descriptorExtractor;
-    private DescriptorMatcher descriptorMatcher;
+    // ORB descriptors are binary, match them by Hamming distance
+    private BinaryDescriptorMatcher descriptorMatcher;
+
+    // ORB instances for extracting the features of new objects, one per thread so that the
+    // loader threads and edits never share native state with each other or with recognize()
+    private static final ThreadLocal<FeatureDetector> trainFeatureDetector = new ThreadLocal<FeatureDetector>() {
+        @Override
+        protected FeatureDetector initialValue() {
+            return FeatureDetector.create(FeatureDetector.ORB);
+        }
+    };
+    private static final ThreadLocal<DescriptorExtractor> trainDescriptorExtractor = new ThreadLocal<DescriptorExtractor>() {
+        @Override
+        protected DescriptorExtractor initialValue() {
+            return DescriptorExtractor.create(DescriptorExtractor.ORB);
+        }
+    };
+    private final DescriptorIndex index;
 
-    private ArrayList<Mat> trainImages;
+    // One slot per Mat added to descriptorMatcher, the slot number is the imgIdx of its matches.
+    // A removed object leaves a tombstone (null name) until the next compaction.
     private ArrayList<MatOfKeyPoint> trainKeypoints;
     private ArrayList<Mat> trainDescriptors;
     private ArrayList<String> objectNames;
+    private HashMap<String, Integer> slotOfObject = new HashMap<String, Integer>();
+    private int tombstones;
+    // objects removed while the loader may still have their image queued, it must not bring them back
+    private final HashSet<String> removedObjects = new HashSet<String>();
+
+    // guards the matcher, the matching strategy and the slots read by recognizeObject(). Edits
+    // hold it to update the slots and to swap in the strategy they trained, or the matcher they
+    // rebuilt, without it.
+    private final Object matcherLock = new Object();
+    // serializes the edits, taken before matcherLock; the slots only change while it is held
+    private final Object editLock = new Object();
+
+    // object count from which the approximate matcher is used
+    private static final int LSH_MIN_OBJECTS = 50;
 
-    private MatchingStrategy matchingStrategy = MatchingStrategy.RATIO_TEST;
+    // compact once this many slots or a quarter of them are tombstones
+    private static final int MIN_TOMBSTONES_TO_COMPACT = 8;
+
+    private MatchingStrategy matchingStrategy = new RatioTestStrategy(RATIO_TEST_RATIO);
+    // detect, extract, match and verify durations of recognizeObject()
+    private final StageTimings timings = new StageTimings();
 
     private int numMatches;
     private int matchIndex;
     private int[] numMatchesInImage;
 
+    private static final String TAG = "ObjectRecognizer";
+
+    // for the time to first recognition
+    private final long createdAt;
+    private volatile boolean recognizedOnce;
+
     public ObjectRecognizer(File trainDir) {
+        this(trainDir, false);
+    }
+
+    /**
+     * Loads the objects of trainDir. Features of unchanged images come from the descriptor index,
+     * the other images are decoded and run through ORB on the Utilities loader threads.
+     * @param background - if true, return once the indexed objects are loaded, the other objects
+     *                   are then added one by one as their features are extracted
+     */
+    public ObjectRecognizer(File trainDir, boolean background) {
+        createdAt = System.nanoTime();
 
         ArrayList<File> jpgFiles = Utilities.getJPGFiles(trainDir);
-        trainImages = Utilities.getImageMats(jpgFiles); //gives converted grey scale
-        objectNames = Utilities.getFileNames(jpgFiles);
+        objectNames = new ArrayList<String>();
 
         featureDetector = FeatureDetector.create(FeatureDetector.ORB);
         descriptorExtractor = DescriptorExtractor.create(DescriptorExtractor.ORB);
-        descriptorMatcher = DescriptorMatcher.create(DescriptorMatcher.BRUTEFORCE);
+        descriptorMatcher = newMatcher(jpgFiles.size());
 
         trainKeypoints = new ArrayList<MatOfKeyPoint>(); //for keypoints
         trainDescriptors = new ArrayList<Mat>(); //descript key points
 
-        for (int i = 0; i < trainImages.size(); i++) {
-
-            trainKeypoints.add(new MatOfKeyPoint());
-            featureDetector.detect(trainImages.get(i), trainKeypoints.get(i)); // amount of key points and stablity
-            trainDescriptors.add(new Mat());
-            descriptorExtractor.compute(trainImages.get(i), trainKeypoints.get(i),
-                    trainDescriptors.get(i)); // decriptor of each key point
-
+        index = DescriptorIndex.load(new File(trainDir, DescriptorIndex.FILE_NAME));
+        index.retain(jpgFiles);
+        final ArrayList<File> missing = new ArrayList<File>();
+        for (File jpgFile : jpgFiles) {
+            DescriptorIndex.Entry entry = index.get(jpgFile);
+            if (entry == null) {
+                missing.add(jpgFile);
+                continue;
+            }
+            slotOfObject.put(getObjectName(jpgFile), objectNames.size());
+            objectNames.add(getObjectName(jpgFile));
+            trainKeypoints.add(entry.keypoints());
+            trainDescriptors.add(entry.descriptors());
         }
         descriptorMatcher.add(trainDescriptors);
         descriptorMatcher.train();
+        matchingStrategy.train(descriptorMatcher, trainDescriptors);
+
+        final int indexed = objectNames.size();
+        Log.i(TAG, "Loaded " + indexed + " objects from the index in " +
+                (System.nanoTime() - createdAt) / 1000000 + " ms, " + missing.size() + " to extract");
+
+        ExecutorService loader = Utilities.loadImages(missing, new Utilities.TrainImageHandler() {
+            private long firstObjectAt;
+            private long peakNativeHeap = Debug.getNativeHeapAllocatedSize();
+
+            @Override
+            public void onImage(File file, Mat image) {
+                MatOfKeyPoint keypoints = new MatOfKeyPoint();
+                Mat descriptors = new Mat();
+                extractTrainFeatures(image, keypoints, descriptors);
+                String name = getObjectName(file);
+                synchronized (index) {
+                    // copied while this thread still owns the Mats, removeObject() marks the
+                    // object before it edits the index
+                    if (!isRemoved(name))
+                        index.put(file, keypoints, descriptors);
+                }
+                if (!insertLoadedObject(name, keypoints, descriptors)) {
+                    keypoints.release();
+                    descriptors.release();
+                    return;
+                }
+                synchronized (this) {
+                    if (firstObjectAt == 0)
+                        firstObjectAt = System.nanoTime();
+                    // sampled while the train image is still held
+                    peakNativeHeap = Math.max(peakNativeHeap, Debug.getNativeHeapAllocatedSize());
+                }
+            }
+
+            @Override
+            public void onFinished() {
+                synchronized (index) {
+                    index.save();
+                }
+                synchronized (this) {
+                    Log.i(TAG, "Extracted " + missing.size() + " objects, first after " +
+                            (firstObjectAt == 0 ? 0 : (firstObjectAt - createdAt) / 1000000) + " ms, all after " +
+                            (System.nanoTime() - createdAt) / 1000000 + " ms, peak native heap " +
+                            peakNativeHeap / 1024 + " KB, " + (indexed + missing.size()) + " objects in total");
+                }
+            }
+        });
+
+        if (!background) {
+            try {
+                while (!loader.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // keep waiting for the extraction
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
-    public void removeObject(int clickedImgIdx) {
-        trainImages.remove(clickedImgIdx);
-        objectNames.remove(clickedImgIdx);
-        trainKeypoints.remove(clickedImgIdx);
-        trainDescriptors.remove(clickedImgIdx);
+    // exact matching is real-time for a few dozen objects, past that use the hashed index
+    private static BinaryDescriptorMatcher newMatcher(int objectCount) {
+        if (objectCount >= LSH_MIN_OBJECTS)
+            return new LshMatcher();
+        return new HammingMatcher();
+    }
 
-        descriptorMatcher.clear();
-        descriptorMatcher.add(trainDescriptors);
-        descriptorMatcher.train();
+    private static String getObjectName(File imageFile) {
+        return imageFile.getName().substring(0, imageFile.getName().lastIndexOf("."));
     }
-//We got a grey scale image (current scene)
-    public String recognize(Mat mGray) {
+
+    // false if the image cannot be decoded
+    private boolean extractTrainFeatures(File imageFile, MatOfKeyPoint keypoints, Mat descriptors) {
+        Mat trainImage = Utilities.getImageMat(imageFile); //gives converted grey scale
+        if (trainImage == null)
+            return false;
+        extractTrainFeatures(trainImage, keypoints, descriptors);
+        MatPool.getDefault().recycle(trainImage);
+        return true;
+    }
+
+    // may run on several threads at once, each has its own ORB instances
+    private void extractTrainFeatures(Mat trainImage, MatOfKeyPoint keypoints, Mat descriptors) {
+        trainFeatureDetector.get().detect(trainImage, keypoints); // amount of key points and stablity
+        trainDescriptorExtractor.get().compute(trainImage, keypoints, descriptors); // decriptor of each key point
+    }
+
+    /**
+     * Adds an object, or replaces the object of the same name. The features are extracted and the
+     * matching strategy is trained on the calling thread, recognize() keeps running meanwhile and
+     * sees the object once this returns.
+     */
+    public void addObject(String name, Mat image) {
         MatOfKeyPoint keypoints = new MatOfKeyPoint();
         Mat descriptors = new Mat();
-        List<MatOfDMatch> matches = new LinkedList<MatOfDMatch>();
-//Detected Keypoints of Current object
-        featureDetector.detect(mGray, keypoints);
-        //Computed Descriptor
-        descriptorExtractor.compute(mGray, keypoints, descriptors);
-        //Send for matching
-        return match(keypoints, descriptors, matches, matchingStrategy);//Current Keypoints,Its descriptors, Matchs (how many will be matched), strategy
+        extractTrainFeatures(image, keypoints, descriptors);
+        insertObject(name, keypoints, descriptors);
     }
 
-    // Parameters for matching
-    public static final double RATIO_TEST_RATIO = 0.92;
-    public static final int RATIO_TEST_MIN_NUM_MATCHES = 32;
+    /**
+     * Adds the object stored in imageFile and records its features in the descriptor index.
+     */
+    public void addObject(File imageFile) {
+        MatOfKeyPoint keypoints = new MatOfKeyPoint();
+        Mat descriptors = new Mat();
+        if (!extractTrainFeatures(imageFile, keypoints, descriptors)) {
+            Log.w(TAG, "Cannot decode " + imageFile);
+            return;
+        }
+        // the index copies the features, the slot then owns the Mats
+        synchronized (index) {
+            index.put(imageFile, keypoints, descriptors);
+            index.save();
+        }
+        insertObject(getObjectName(imageFile), keypoints, descriptors);
+    }
+
+    private void insertObject(String name, MatOfKeyPoint keypoints, Mat descriptors) {
+        synchronized (editLock) {
+            synchronized (matcherLock) {
+                removedObjects.remove(name);
+                tombstone(name);
+                slotOfObject.put(name, objectNames.size());
+                objectNames.add(name);
+                trainKeypoints.add(keypoints);
+                trainDescriptors.add(descriptors);
+                // only packs or hashes the new descriptors
+                descriptorMatcher.add(descriptors);
+            }
+            retrain();
+        }
+    }
+
+    // adds an object of the background loader, unless it was removed meanwhile
+    private boolean insertLoadedObject(String name, MatOfKeyPoint keypoints, Mat descriptors) {
+        synchronized (editLock) {
+            if (isRemoved(name))
+                return false;
+            insertObject(name, keypoints, descriptors);
+            return true;
+        }
+    }
+
+    private boolean isRemoved(String name) {
+        synchronized (matcherLock) {
+            return removedObjects.contains(name);
+        }
+    }
+
+    /**
+     * Removes the object from recognition. Its descriptors stay in the matcher as a tombstone,
+     * which never wins a vote, until enough tombstones pile up for a compaction. An image of the
+     * object still being loaded in the background is dropped, addObject() brings it back.
+     */
+    public void removeObject(String name) {
+        synchronized (editLock) {
+            boolean removed;
+            synchronized (matcherLock) {
+                removedObjects.add(name);
+                removed = tombstone(name);
+            }
+            if (removed)
+                retrain();
+        }
+        synchronized (index) {
+            if (index.remove(name))
+                index.save();
+        }
+    }
 
-    public String match(MatOfKeyPoint keypoints, Mat descriptors, List<MatOfDMatch> matches, MatchingStrategy matchingStrategy) {
+    public int getObjectCount() {
+        synchronized (matcherLock) {
+            return slotOfObject.size();
+        }
+    }
 
-        return match_ratioTest(descriptors, matches, RATIO_TEST_RATIO, RATIO_TEST_MIN_NUM_MATCHES);
+    public boolean containsObject(String name) {
+        synchronized (matcherLock) {
+            return slotOfObject.containsKey(name);
+        }
+    }
 
+    /* Called when matcherLock is held, returns whether there was a slot */
+    private boolean tombstone(String name) {
+        Integer slot = slotOfObject.remove(name);
+        if (slot == null)
+            return false;
+        // the matcher keeps its own reference to the descriptor data
+        trainKeypoints.get(slot).release();
+        trainDescriptors.get(slot).release();
+        objectNames.set(slot, null);
+        trainKeypoints.set(slot, null);
+        trainDescriptors.set(slot, null);
+        tombstones++;
+        return true;
     }
 
-    private String match_ratioTest(Mat descriptors, List<MatOfDMatch> matches, double ratio, int minNumMatches) {
+    /*
+     * Called when editLock is held and matcherLock is not. Trains a copy of the matching strategy
+     * for the current slots, after compacting them into a new matcher once enough tombstones
+     * piled up, and swaps the result in. Recognition keeps using the previous matcher and
+     * strategy meanwhile, whose votes for tombstones are ignored.
+     */
+    private void retrain() {
+        // only edits change the slots, so they can be read without matcherLock here
+        if (tombstones < MIN_TOMBSTONES_TO_COMPACT && tombstones * 4 < objectNames.size()) {
+            MatchingStrategy strategy = matchingStrategy.copy();
+            strategy.train(descriptorMatcher, trainDescriptors);
+            synchronized (matcherLock) {
+                matchingStrategy = strategy;
+            }
+            return;
+        }
 
-        getMatches_ratioTest(descriptors, matches, ratio);
-        return getDetectedObjIndex(matches, minNumMatches);
+        HashMap<String, Integer> slots = new HashMap<String, Integer>();
+        ArrayList<String> names = new ArrayList<String>(slotOfObject.size());
+        ArrayList<MatOfKeyPoint> keypoints = new ArrayList<MatOfKeyPoint>(slotOfObject.size());
+        ArrayList<Mat> descriptors = new ArrayList<Mat>(slotOfObject.size());
+        for (int i = 0; i < objectNames.size(); i++) {
+            if (objectNames.get(i) == null)
+                continue;
+            slots.put(objectNames.get(i), names.size());
+            names.add(objectNames.get(i));
+            keypoints.add(trainKeypoints.get(i));
+            descriptors.add(trainDescriptors.get(i));
+        }
+        BinaryDescriptorMatcher matcher = newMatcher(names.size());
+        matcher.add(descriptors);
+        matcher.train();
+        MatchingStrategy strategy = matchingStrategy.copy();
+        strategy.train(matcher, descriptors);
+
+        synchronized (matcherLock) {
+            slotOfObject = slots;
+            objectNames = names;
+            trainKeypoints = keypoints;
+            trainDescriptors = descriptors;
+            tombstones = 0;
+            descriptorMatcher = matcher;
+            matchingStrategy = strategy;
+        }
     }
 
-    // adds to the matches list matches that satisfy the ratio test with ratio
+    /**
+     * Selects how frame descriptors are matched, takes effect from the next frame.
+     */
+    public void setMatchingStrategy(MatchingStrategy strategy) {
+        synchronized (editLock) {
+            // strategy may be the one in use, so train a copy
+            MatchingStrategy trained = strategy.copy();
+            trained.train(descriptorMatcher, trainDescriptors);
+            synchronized (matcherLock) {
+                matchingStrategy = trained;
+            }
+        }
+    }
 
-    private void getMatches_ratioTest(Mat descriptors, List<MatOfDMatch> matches, double ratio) {
+    /**
+     * @return the strategy in use, a trained copy of the one set for strategies with train state
+     */
+    public MatchingStrategy getMatchingStrategy() {
+        synchronized (matcherLock) {
+            return matchingStrategy;
+        }
+    }
 
-        LinkedList<MatOfDMatch> knnMatches = new LinkedList<MatOfDMatch>();
-        DMatch bestMatch, secondBestMatch;
+    public StageTimings getTimings() {
+        return timings;
+    }
 
-        descriptorMatcher.knnMatch(descriptors, knnMatches, 2); //normtype , k=2 for  ratio test.
+    /**
+     * Checks the votes of the best objects with a RANSAC homography before accepting one, which
+     * also localizes it in the frame. Objects then need GeometricVerifier.MIN_INLIERS consistent
+     * matches instead of RATIO_TEST_MIN_NUM_MATCHES votes.
+     */
+    public void setGeometricVerification(boolean enabled) {
+        synchronized (matcherLock) {
+            verifier = enabled ? new GeometricVerifier(VERIFICATION_CANDIDATES) : null;
+        }
+    }
 
-        for (MatOfDMatch matOfDMatch : knnMatches) {
-            bestMatch = matOfDMatch.toArray()[0];
-            secondBestMatch = matOfDMatch.toArray()[1];
+    public boolean isGeometricVerificationEnabled() {
+        synchronized (matcherLock) {
+            return verifier != null;
+        }
+    }
 
-            if (bestMatch.distance / secondBestMatch.distance <= ratio) {
+//We got a grey scale image (current scene)
+    public String recognize(Mat mGray) {
+        Recognition recognition = recognizeObject(mGray);
+        return recognition == null ? "-" : recognition.name;
+    }
 
-                MatOfDMatch goodMatch = new MatOfDMatch();
-                goodMatch.fromArray(new DMatch[] { bestMatch });
-                matches.add(goodMatch);
+    /**
+     * @return the object recognized in the grey scale frame, null if there is none
+     */
+    public Recognition recognizeObject(Mat mGray) {
+        return recognizeObject(mGray, 1, null);
+    }
 
+    /**
+     * Recognizes on a downscaled copy of the frame and/or only inside a region of it. Keypoints are
+     * mapped back to frame coordinates, so the corners of the result are in the frame either way.
+     * @param mGray - grey scale frame, possibly downscaled, e.g. CvCameraViewFrame.gray(level)
+     * @param scale - frame pixels per mGray pixel, 2^level for a pyramid level
+     * @param roi - region of mGray to search, in mGray coordinates, null for all of it
+     */
+    public Recognition recognizeObject(Mat mGray, double scale, Rect roi) {
+        // every Mat created for this frame, including the knnMatch results, is released on return
+        MatScope scope = MatScope.open();
+        // ORB keeps at most DESCRIPTORS_PER_FRAME keypoints, so in textured scenes the pooled
+        // descriptor buffer already has the right size and compute() does not reallocate it
+        Mat descriptors = MatPool.getDefault().acquire(DESCRIPTORS_PER_FRAME, ORB_DESCRIPTOR_SIZE, CvType.CV_8UC1);
+        try {
+            Mat image = roi == null ? mGray : mGray.submat(roi);
+            MatOfKeyPoint keypoints = new MatOfKeyPoint();
+            long start = System.nanoTime();
+//Detected Keypoints of Current object
+            featureDetector.detect(image, keypoints);
+            long detectEnd = System.nanoTime();
+            timings.record("detect", detectEnd - start);
+            //Computed Descriptor
+            descriptorExtractor.compute(image, keypoints, descriptors);
+            if (roi != null || scale != 1)
+                toFrameCoordinates(keypoints, scale, roi);
+            timings.record("extract", System.nanoTime() - detectEnd);
+            //Send for matching
+            Recognition recognition;
+            synchronized (matcherLock) {
+                recognition = match(keypoints, descriptors, matchingStrategy);
+            }//Current Keypoints,Its descriptors, strategy
+            if (recognition != null && !recognizedOnce) {
+                recognizedOnce = true;
+                Log.i(TAG, "First recognition " + (System.nanoTime() - createdAt) / 1000000 + " ms after loading started");
             }
+            return recognition;
+        } finally {
+            scope.close();
+            MatPool.getDefault().recycle(descriptors);
         }
     }
 
-    // uses the list of matches to count the number of matches to each database object.
-    // The object with the maximum such number nmax is considered to have been recognized if nmax > minNumMatches.
-    // if for a query descriptor there exists multiple matches to train
-    // descriptors of the same train image, all such matches are counted as only
-    // one match.
+    private final KeyPointBuffer frameKeypoints = new KeyPointBuffer(DESCRIPTORS_PER_FRAME);
+
+    // moves keypoints found in roi of an image downscaled by scale to frame coordinates
+    private void toFrameCoordinates(MatOfKeyPoint keypoints, double scale, Rect roi) {
+        float dx = roi == null ? 0 : roi.x;
+        float dy = roi == null ? 0 : roi.y;
+        float s = (float) scale;
+        frameKeypoints.load(keypoints);
+        float[] data = frameKeypoints.data();
+        for (int i = 0, o = 0; i < frameKeypoints.count(); i++, o += KeyPointBuffer.CHANNELS) {
+            data[o] = (data[o] + dx) * s;
+            data[o + 1] = (data[o + 1] + dy) * s;
+            data[o + 2] *= s;
+        }
+        frameKeypoints.store(keypoints);
+    }
 
-    private String getDetectedObjIndex(List<MatOfDMatch> matches, int minNumMatches) {
+    // smallest region ORB still finds keypoints in, its border is 31 pixels
+    private static final int MIN_REGION_SIZE = 96;
+
+    /**
+     * @param corners - corners of an object in frame coordinates, as in Recognition.corners
+     * @param margin - fraction of the object size added on every side
+     * @param scale - frame pixels per image pixel
+     * @param imageSize - size of the image the region is for
+     * @return the bounding box of corners expanded by margin, in image coordinates and clipped to
+     * it, null if it is too small to search
+     */
+    public static Rect getSearchRegion(float[] corners, double margin, double scale, Size imageSize) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            minX = Math.min(minX, corners[2 * i]);
+            maxX = Math.max(maxX, corners[2 * i]);
+            minY = Math.min(minY, corners[2 * i + 1]);
+            maxY = Math.max(maxY, corners[2 * i + 1]);
+        }
+        double mx = (maxX - minX) * margin;
+        double my = (maxY - minY) * margin;
+        int x0 = (int) Math.max(0, Math.floor((minX - mx) / scale));
+        int y0 = (int) Math.max(0, Math.floor((minY - my) / scale));
+        int x1 = (int) Math.min(imageSize.width, Math.ceil((maxX + mx) / scale));
+        int y1 = (int) Math.min(imageSize.height, Math.ceil((maxY + my) / scale));
+        if (x1 - x0 < MIN_REGION_SIZE || y1 - y0 < MIN_REGION_SIZE)
+            return null;
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
 
-        numMatchesInImage = new int[trainImages.size()];
-        matchIndex = -1;
-        numMatches = 0;
+    // default ORB parameters: 500 features, 32 byte descriptors
+    private static final int DESCRIPTORS_PER_FRAME = 500;
+    private static final int ORB_DESCRIPTOR_SIZE = 32;
+
+    // Parameters for matching
+    public static final double RATIO_TEST_RATIO = 0.92;
+    public static final int RATIO_TEST_MIN_NUM_MATCHES = 32;
 
-        for (MatOfDMatch matOfDMatch : matches) {
+    // objects checked by the geometric verification per frame
+    public static final int VERIFICATION_CANDIDATES = 5;
 
-            DMatch[] dMatch = matOfDMatch.toArray();
-            boolean[] imagesMatched = new boolean[trainImages.size()];
+    private GeometricVerifier verifier;
 
-            for (int i = 0; i < dMatch.length; i++)
-            {
-                if (!imagesMatched[dMatch[i].imgIdx])
-                {
-                    numMatchesInImage[dMatch[i].imgIdx]++;
-                    imagesMatched[dMatch[i].imgIdx] = true;
-                }
-            }
+    // correspondences kept by the matching strategy for the current frame, reused across frames
+    private final MatchSet goodMatches = new MatchSet(DESCRIPTORS_PER_FRAME);
+
+    public Recognition match(MatOfKeyPoint keypoints, Mat descriptors, MatchingStrategy matchingStrategy) {
+
+        long start = System.nanoTime();
+        goodMatches.clear();
+        matchingStrategy.match(descriptors, descriptorMatcher, goodMatches);
+        countVotes();
+        long matchEnd = System.nanoTime();
+        timings.record("match", matchEnd - start);
+
+        if (verifier != null) {
+            int slot = verifier.verify(numMatchesInImage, trainKeypoints, keypoints, goodMatches);
+            timings.record("verify", System.nanoTime() - matchEnd);
+            if (slot < 0)
+                return null;
+            return new Recognition(objectNames.get(slot), numMatchesInImage[slot], verifier.getInliers(),
+                    verifier.getCorners(), verifier.getInlierTrainPoints(), verifier.getInlierFramePoints());
         }
 
-        for (int i = 0; i < numMatchesInImage.length; i++)
+        int slot = getDetectedObjIndex(RATIO_TEST_MIN_NUM_MATCHES);
+        if (slot < 0)
+            return null;
+        return new Recognition(objectNames.get(slot), numMatches, 0, null);
+    }
+
+    // counts the good matches to each database object.
+    // strategies keep at most one match per frame descriptor and image, so a descriptor
+    // votes at most once for every image.
+
+    private void countVotes() {
+
+        if (numMatchesInImage == null || numMatchesInImage.length < objectNames.size())
+            numMatchesInImage = new int[objectNames.size()];
+        else
+            Arrays.fill(numMatchesInImage, 0);
+
+        for (int i = 0; i < goodMatches.count(); i++)
+            numMatchesInImage[goodMatches.imgIdx(i)]++;
+    }
+
+    // The object with the maximum number of votes nmax is considered to have been recognized if nmax >= minNumMatches.
+    // returns its slot, -1 if there is none
+
+    private int getDetectedObjIndex(int minNumMatches) {
+
+        matchIndex = -1;
+        numMatches = 0;
+
+        for (int i = 0; i < objectNames.size(); i++)
         {
-            if (numMatchesInImage[i] > numMatches)
+            if (numMatchesInImage[i] > numMatches && objectNames.get(i) != null)
             {
                 matchIndex = i;
                 numMatches = numMatchesInImage[i];
@@ -159,11 +588,11 @@ public class ObjectRecognizer {
 
         if (numMatches < minNumMatches)
         {
-            return "-";
+            return -1;
         }
         else
         {
-            return objectNames.get(matchIndex);
+            return matchIndex;
         }
     }
 }
@@ -0,0 +1,246 @@
+package com.example.somia.opencv249.object_recog;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.video.Video;
+
+/**
+ * Follows a recognized object across frames with pyramidal Lucas-Kanade optical flow instead of
+ * running the full ORB recognition on every frame. The inliers of the last recognition are
+ * tracked and a homography from the train image is fitted to them again on every frame.
+ * Full recognition runs again when too few points survive the flow, when the homography
+ * keeps too small a share of them, or every keyframeInterval frames to pick up a new object.
+ * Needs the geometric verification of the recognizer, without it every frame is recognized.
+ * Not thread safe, meant to be called from the single analysis thread.
+ */
+public class ObjectTracker {
+
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 15;
+    // tracked points needed to keep following the object
+    public static final int MIN_TRACKED_POINTS = GeometricVerifier.MIN_INLIERS;
+    // share of the tracked points the homography must agree with
+    public static final double MIN_INLIER_RATIO = 0.6;
+
+    // frames after a loss during which recognition only searches around the last location
+    public static final int REACQUIRE_FRAMES = 5;
+    // fraction of the object size added around its last location
+    public static final double REGION_MARGIN = 0.5;
+
+    private static final Size WINDOW_SIZE = new Size(21, 21);
+    private static final int PYRAMID_LEVELS = 3;
+
+    private final ObjectRecognizer recognizer;
+    private final int keyframeInterval;
+    private final StageTimings timings = new StageTimings();
+
+    private Recognition tracked;
+    private int framesSinceKeyframe;
+    // pyramid level full recognition runs on
+    private int recognitionLevel;
+    // corners of the object before the track was lost, null once it is given up
+    private float[] lastCorners;
+    private int framesSinceLoss;
+
+    private final Mat previousGray = new Mat();
+    private final MatOfPoint2f previousPoints = new MatOfPoint2f();
+    private final MatOfPoint2f nextPoints = new MatOfPoint2f();
+    private final MatOfByte status = new MatOfByte();
+    private final MatOfFloat error = new MatOfFloat();
+    private final MatOfPoint2f trainPoints = new MatOfPoint2f();
+    private final MatOfPoint2f framePoints = new MatOfPoint2f();
+    private final Mat inlierMask = new Mat();
+    private final MatOfPoint2f trainCorners = new MatOfPoint2f();
+    private final MatOfPoint2f frameCorners = new MatOfPoint2f();
+
+    // train and frame x, y of the points being tracked
+    private float[] trainXY = new float[0];
+    private float[] frameXY = new float[0];
+    private int numPoints;
+    private byte[] statusBytes = new byte[0];
+    private float[] nextXY = new float[0];
+    private final float[] corners = new float[8];
+
+    public ObjectTracker(ObjectRecognizer recognizer) {
+        this(recognizer, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * @param keyframeInterval - frames after which full recognition runs even if the track holds
+     */
+    public ObjectTracker(ObjectRecognizer recognizer, int keyframeInterval) {
+        this.recognizer = recognizer;
+        this.keyframeInterval = keyframeInterval;
+        float w = (float) Utilities.TRAIN_IMAGE_SIZE.width;
+        float h = (float) Utilities.TRAIN_IMAGE_SIZE.height;
+        trainCorners.alloc(4);
+        trainCorners.put(0, 0, new float[] { 0, 0, w, 0, w, h, 0, h });
+    }
+
+    /**
+     * Recognition runs on frame.gray(level), which cuts the ORB cost about 4 times per level at the
+     * price of missing small objects, tracking always runs at full resolution.
+     */
+    public void setRecognitionLevel(int level) {
+        recognitionLevel = level;
+    }
+
+    /**
+     * @return the object in the grey scale frame, tracked or recognized, null if there is none
+     */
+    public Recognition process(Mat gray) {
+        return process(gray, gray, 1);
+    }
+
+    /**
+     * @return the object in the frame, tracked or recognized, null if there is none
+     */
+    public Recognition process(CameraBridgeViewBase.CvCameraViewFrame frame) {
+        return process(frame.gray(), frame.gray(recognitionLevel), 1 << recognitionLevel);
+    }
+
+    private Recognition process(Mat gray, Mat recognitionGray, double scale) {
+        Recognition result = null;
+        if (tracked != null && framesSinceKeyframe < keyframeInterval && recognizer.containsObject(tracked.name)) {
+            long start = System.nanoTime();
+            result = track(gray);
+            timings.record("track", System.nanoTime() - start);
+            if (result == null) {
+                lastCorners = tracked.corners;
+                framesSinceLoss = 0;
+            }
+        }
+
+        if (result == null) {
+            long start = System.nanoTime();
+            result = recognize(recognitionGray, scale);
+            timings.record("recognize", System.nanoTime() - start);
+            startTrack(result);
+        } else {
+            framesSinceKeyframe++;
+        }
+
+        tracked = result;
+        if (result != null)
+            gray.copyTo(previousGray);
+        return result;
+    }
+
+    // right after a loss the object is most likely close to where it was, only search there
+    private Recognition recognize(Mat recognitionGray, double scale) {
+        if (lastCorners != null && framesSinceLoss++ < REACQUIRE_FRAMES) {
+            Rect roi = ObjectRecognizer.getSearchRegion(lastCorners, REGION_MARGIN, scale, recognitionGray.size());
+            if (roi != null)
+                return recognizer.recognizeObject(recognitionGray, scale, roi);
+        }
+        lastCorners = null;
+        return recognizer.recognizeObject(recognitionGray, scale, null);
+    }
+
+    /**
+     * Forgets the tracked object, the next frame runs full recognition.
+     */
+    public void reset() {
+        tracked = null;
+        lastCorners = null;
+    }
+
+    public StageTimings getTimings() {
+        return timings;
+    }
+
+    // keeps the n points the inlier mask accepts, so drifting points do not pile up
+    private void dropOutliers(int n) {
+        inlierMask.get(0, 0, statusBytes, 0, n);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (statusBytes[i] == 0)
+                continue;
+            trainXY[2 * m] = trainXY[2 * i];
+            trainXY[2 * m + 1] = trainXY[2 * i + 1];
+            frameXY[2 * m] = frameXY[2 * i];
+            frameXY[2 * m + 1] = frameXY[2 * i + 1];
+            m++;
+        }
+        numPoints = m;
+    }
+
+    private void startTrack(Recognition recognition) {
+        framesSinceKeyframe = 0;
+        if (recognition != null)
+            lastCorners = null;
+        numPoints = 0;
+        if (recognition == null || recognition.trainPoints == null)
+            return;
+        numPoints = recognition.trainPoints.length / 2;
+        if (trainXY.length < 2 * numPoints) {
+            trainXY = new float[2 * numPoints];
+            frameXY = new float[2 * numPoints];
+        }
+        System.arraycopy(recognition.trainPoints, 0, trainXY, 0, 2 * numPoints);
+        System.arraycopy(recognition.framePoints, 0, frameXY, 0, 2 * numPoints);
+    }
+
+    // follows the points into gray, returns null when the track is lost
+    private Recognition track(Mat gray) {
+        if (numPoints < MIN_TRACKED_POINTS || previousGray.empty() || !previousGray.size().equals(gray.size()))
+            return null;
+
+        previousPoints.alloc(numPoints);
+        previousPoints.put(0, 0, frameXY, 0, 2 * numPoints);
+        Video.calcOpticalFlowPyrLK(previousGray, gray, previousPoints, nextPoints, status, error,
+                WINDOW_SIZE, PYRAMID_LEVELS);
+
+        // keep the points the flow found, with their new position
+        if (statusBytes.length < numPoints) {
+            statusBytes = new byte[numPoints];
+            nextXY = new float[2 * numPoints];
+        }
+        status.get(0, 0, statusBytes, 0, numPoints);
+        nextPoints.get(0, 0, nextXY, 0, 2 * numPoints);
+        int n = 0;
+        for (int i = 0; i < numPoints; i++) {
+            if (statusBytes[i] == 0)
+                continue;
+            trainXY[2 * n] = trainXY[2 * i];
+            trainXY[2 * n + 1] = trainXY[2 * i + 1];
+            frameXY[2 * n] = nextXY[2 * i];
+            frameXY[2 * n + 1] = nextXY[2 * i + 1];
+            n++;
+        }
+        numPoints = n;
+        if (n < MIN_TRACKED_POINTS)
+            return null;
+
+        trainPoints.alloc(n);
+        trainPoints.put(0, 0, trainXY, 0, 2 * n);
+        framePoints.alloc(n);
+        framePoints.put(0, 0, frameXY, 0, 2 * n);
+        Mat homography = Calib3d.findHomography(trainPoints, framePoints, Calib3d.RANSAC,
+                GeometricVerifier.REPROJECTION_THRESHOLD, inlierMask);
+        try {
+            if (homography.empty() || inlierMask.empty())
+                return null;
+            int inliers = Core.countNonZero(inlierMask);
+            if (inliers < MIN_TRACKED_POINTS || inliers < MIN_INLIER_RATIO * n)
+                return null;
+            Core.perspectiveTransform(trainCorners, frameCorners, homography);
+            if (frameCorners.type() != CvType.CV_32FC2)
+                return null;
+            frameCorners.get(0, 0, corners);
+            if (!GeometricVerifier.isConvex(corners))
+                return null;
+            dropOutliers(n);
+            return new Recognition(tracked.name, tracked.votes, inliers, corners.clone());
+        } finally {
+            homography.release();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.somia.opencv249.object_recog;
+
+import org.opencv.core.DMatchBuffer;
+import org.opencv.core.Mat;
+import org.opencv.features2d.BinaryDescriptorMatcher;
+
+import java.util.List;
+
+/**
+ * Keeps the nearest train descriptor of a frame descriptor when it is clearly closer than the
+ * second nearest one (Lowe's ratio test).
+ */
+public class RatioTestStrategy implements MatchingStrategy {
+    private final double ratio;
+    private final DMatchBuffer knnMatches = new DMatchBuffer();
+    private final StageTimings timings = new StageTimings();
+
+    public RatioTestStrategy(double ratio) {
+        this.ratio = ratio;
+    }
+
+    @Override
+    public String getName() {
+        return "ratio test";
+    }
+
+    // no train state, this instance can be trained while it matches
+    @Override
+    public MatchingStrategy copy() {
+        return this;
+    }
+
+    @Override
+    public void train(BinaryDescriptorMatcher matcher, List<Mat> slotDescriptors) {
+    }
+
+    @Override
+    public void match(Mat descriptors, BinaryDescriptorMatcher matcher, MatchSet matches) {
+        long start = System.nanoTime();
+        matcher.knnMatch(descriptors, 2, knnMatches); //k=2 for  ratio test.
+        long knnEnd = System.nanoTime();
+        timings.record("knn", knnEnd - start);
+
+        // the matches of one query are consecutive, best first
+        int n = knnMatches.count();
+        for (int i = 0; i < n; i++) {
+            if (i + 1 >= n || knnMatches.queryIdx(i + 1) != knnMatches.queryIdx(i))
+                continue; // a single candidate gives no ratio
+            float best = knnMatches.distance(i);
+            float secondBest = knnMatches.distance(i + 1);
+            if (secondBest > 0 && best <= ratio * secondBest)
+                matches.add(knnMatches.queryIdx(i), knnMatches.trainIdx(i), knnMatches.imgIdx(i));
+            i++;
+        }
+        timings.record("filter", System.nanoTime() - knnEnd);
+    }
+
+    @Override
+    public StageTimings getTimings() {
+        return timings;
+    }
+}
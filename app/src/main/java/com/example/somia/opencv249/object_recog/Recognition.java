@@ -0,0 +1,32 @@
+package com.example.somia.opencv249.object_recog;
+
+/**
+ * Result of ObjectRecognizer.recognizeObject() for one frame.
+ */
+public class Recognition {
+    public final String name;
+    // ratio test matches voting for the object
+    public final int votes;
+    // matches consistent with the homography, 0 when the verification is off
+    public final int inliers;
+    // x, y of the train image corners in the frame (top-left, top-right, bottom-right,
+    // bottom-left), null when the verification is off
+    public final float[] corners;
+    // x, y of the inlier matches in the train image and in the frame, null when the
+    // verification is off
+    public final float[] trainPoints;
+    public final float[] framePoints;
+
+    public Recognition(String name, int votes, int inliers, float[] corners) {
+        this(name, votes, inliers, corners, null, null);
+    }
+
+    public Recognition(String name, int votes, int inliers, float[] corners, float[] trainPoints, float[] framePoints) {
+        this.name = name;
+        this.votes = votes;
+        this.inliers = inliers;
+        this.corners = corners;
+        this.trainPoints = trainPoints;
+        this.framePoints = framePoints;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.somia.opencv249.object_recog;
+
+import org.opencv.android.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Latency histograms of the named stages of the recognition, e.g. "detect" or "knn".
+ * Recorded on the analysis thread, read from any thread.
+ */
+public class StageTimings {
+    private final ArrayList<String> stages = new ArrayList<String>();
+    private final ArrayList<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>();
+
+    public synchronized void record(String stage, long nanos) {
+        int i = stages.indexOf(stage);
+        if (i < 0) {
+            i = stages.size();
+            stages.add(stage);
+            histograms.add(new LatencyHistogram());
+        }
+        histograms.get(i).recordNanos(nanos);
+    }
+
+    /**
+     * @return mean duration of the stage in microseconds, 0 if it was never recorded
+     */
+    public synchronized double getMean(String stage) {
+        int i = stages.indexOf(stage);
+        return i < 0 ? 0 : histograms.get(i).getMean();
+    }
+
+    /**
+     * @return duration of the stage at the percentile in microseconds, 0 if it was never recorded
+     */
+    public synchronized long getValueAtPercentile(String stage, double percentile) {
+        int i = stages.indexOf(stage);
+        return i < 0 ? 0 : histograms.get(i).getValueAtPercentile(percentile);
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram h : histograms)
+            h.reset();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < stages.size(); i++) {
+            LatencyHistogram h = histograms.get(i);
+            if (sb.length() > 0)
+                sb.append('\n');
+            sb.append(String.format(Locale.US, "%s: n=%d mean=%.1fus p50=%dus p95=%dus max=%dus", stages.get(i),
+                    h.getCount(), h.getMean(), h.getValueAtPercentile(50), h.getValueAtPercentile(95), h.getMax()));
+        }
+        return sb.toString();
+    }
+}
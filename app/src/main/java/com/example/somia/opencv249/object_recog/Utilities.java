@@ -3,7 +3,14 @@ package com.example.somia.opencv249.object_recog;
 /**
  * Created by Somia on 10/22/2017.
  */
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import org.opencv.android.Utils;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatPool;
 import org.opencv.core.Size;
 import org.opencv.highgui.Highgui;
 import org.opencv.imgproc.Imgproc;
@@ -17,8 +24,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Utilities {
+    private static final String TAG = "Utilities";
+
     public static ArrayList<File> getJPGFiles(File dir) {
         File[] files = dir.listFiles(new FilenameFilter() {
             @Override
@@ -37,19 +50,117 @@ public class Utilities {
         return jpgFiles;
     }
 
+    public static final Size TRAIN_IMAGE_SIZE = new Size(640, 480);
+
     public static ArrayList<Mat> getImageMats(ArrayList<File> imageFiles) {
         ArrayList<Mat> imageMats = new ArrayList<Mat>();
 
         for (File image : imageFiles) {
-            Mat fullSizeTrainImg = Highgui.imread(image.getPath());//For reading saving images
-            Mat resizedTrainImg = new Mat();
-            Imgproc.resize(fullSizeTrainImg, resizedTrainImg, new Size(640, 480), 0, 0, Imgproc.INTER_CUBIC);//Bicubic for 2D,//Image processing
-            imageMats.add(resizedTrainImg);
+            imageMats.add(getImageMat(image));
         }
 
         return imageMats;
     }
 
+    // decodes one train image and scales it to TRAIN_IMAGE_SIZE, null if it cannot be decoded
+    public static Mat getImageMat(File image) {
+        // JPEG decoding can downscale by powers of two on the fly, which saves most of the
+        // decoding time and memory of camera sized images
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(image.getPath(), options);
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = options.outWidth > 0 ? BitmapFactory.decodeFile(image.getPath(), options) : null;
+        if (bitmap == null) {
+            // not a format BitmapFactory knows, let OpenCV try
+            Mat fullSizeTrainImg = Highgui.imread(image.getPath());//For reading saving images
+            if (fullSizeTrainImg.empty())
+                return null;
+            // train images are recycled into the pool once their features are extracted
+            Mat resizedTrainImg = MatPool.getDefault().acquire(TRAIN_IMAGE_SIZE, CvType.CV_8UC3);
+            Imgproc.resize(fullSizeTrainImg, resizedTrainImg, TRAIN_IMAGE_SIZE, 0, 0, Imgproc.INTER_CUBIC);//Bicubic for 2D,//Image processing
+            fullSizeTrainImg.release();
+            return resizedTrainImg;
+        }
+
+        Mat decoded = new Mat();
+        Utils.bitmapToMat(bitmap, decoded);
+        bitmap.recycle();
+        Mat resizedRgba = new Mat();
+        Imgproc.resize(decoded, resizedRgba, TRAIN_IMAGE_SIZE, 0, 0, Imgproc.INTER_CUBIC);
+        decoded.release();
+        // same channel order as Highgui.imread
+        Mat resizedTrainImg = MatPool.getDefault().acquire(TRAIN_IMAGE_SIZE, CvType.CV_8UC3);
+        Imgproc.cvtColor(resizedRgba, resizedTrainImg, Imgproc.COLOR_RGBA2BGR);
+        resizedRgba.release();
+        return resizedTrainImg;
+    }
+
+    // largest power of two that keeps a width x height image at least TRAIN_IMAGE_SIZE
+    static int getSampleSize(int width, int height) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= TRAIN_IMAGE_SIZE.width && height / (sampleSize * 2) >= TRAIN_IMAGE_SIZE.height)
+            sampleSize *= 2;
+        return sampleSize;
+    }
+
+    // decoding threads, each holds one decoded image at a time
+    public static final int MAX_LOADER_THREADS = 4;
+
+    public interface TrainImageHandler {
+        /**
+         * Called on a loader thread for every decoded image, which goes back to the pool on return.
+         */
+        void onImage(File file, Mat image);
+
+        /**
+         * Called once after the last image, on a loader thread, or on the calling thread when
+         * there are no files.
+         */
+        void onFinished();
+    }
+
+    /**
+     * Decodes the train images on up to MAX_LOADER_THREADS threads and hands each one to handler
+     * as soon as it is ready, so memory holds at most one decoded image per thread.
+     * Files that cannot be decoded are skipped.
+     * @return the loader pool, already shut down, which terminates after onFinished()
+     */
+    public static ExecutorService loadImages(List<File> files, final TrainImageHandler handler) {
+        int threads = Math.max(1, Math.min(MAX_LOADER_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService loader = Executors.newFixedThreadPool(threads);
+        if (files.isEmpty()) {
+            loader.shutdown();
+            handler.onFinished();
+            return loader;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(files.size());
+        for (final File file : files) {
+            loader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Mat image = null;
+                    try {
+                        image = getImageMat(file);
+                        if (image == null)
+                            Log.w(TAG, "Cannot decode " + file);
+                        else
+                            handler.onImage(file, image);
+                    } finally {
+                        if (image != null)
+                            MatPool.getDefault().recycle(image);
+                        if (remaining.decrementAndGet() == 0)
+                            handler.onFinished();
+                    }
+                }
+            });
+        }
+        loader.shutdown();
+        return loader;
+    }
+
     public static ArrayList<String> getFileNames(ArrayList<File> imageFiles) {
         ArrayList<String> fileNames = new ArrayList<String>();
 
@@ -1,12 +1,16 @@
 package org.opencv.android;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.opencv.R;
 import org.opencv.android.Utils;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
 import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -40,6 +44,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     private CvCameraViewListener2 mListener;
     private boolean mSurfaceExist;
     private Object mSyncObject = new Object();
+    private volatile AnalysisPipeline mAnalysisPipeline;
 
     protected int mFrameWidth;
     protected int mFrameHeight;
@@ -50,6 +55,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected int mCameraIndex = CAMERA_ID_ANY;
     protected boolean mEnabled;
     protected FpsMeter mFpsMeter = null;
+    protected final FrameMetrics mFrameMetrics = new FrameMetrics();
 
     public static final int CAMERA_ID_ANY   = -1;
     public static final int CAMERA_ID_BACK  = 99;
@@ -175,6 +181,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     /**
      * This class interface is abstract representation of single frame from camera for onCameraFrame callback
      * Attention: Do not use objects, that represents this interface out of onCameraFrame callback!
+     * The returned Mats are owned by the frame and may be shared between callers, do not release them.
      */
     public interface CvCameraViewFrame {
 
@@ -187,6 +194,53 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * This method returns RGBA Mat with frame downscaled 2^level times, level 0 is rgba()
+         */
+        public Mat rgba(int level);
+
+        /**
+         * This method returns single channel gray scale Mat with frame downscaled 2^level times, level 0 is gray()
+         */
+        public Mat gray(int level);
+    };
+
+    /**
+     * Frame backed by an NV21 buffer. The analysis snapshot copies that buffer, a third of the
+     * size of the RGBA frame, and only converts it if the analyzer asks for RGBA.
+     */
+    interface Nv21Frame {
+        /**
+         * @return the NV21 Mat with the Y plane in its first rows, owned by the frame
+         */
+        public Mat nv21();
+    };
+
+    /**
+     * Analysis stage of the pipeline mode, see enableAnalysis().
+     */
+    public interface CvCameraViewAnalyzer {
+        /**
+         * This method is invoked on the analysis thread with a private copy of the most recent
+         * camera frame. The frame may be used until the method returns. While it runs, the preview
+         * keeps being rendered at camera rate and newer frames are not queued for analysis.
+         * @param frame - copy of the frame taken when the analysis thread became idle
+         * @return overlay to draw over the following preview frames, or null to draw nothing
+         */
+        public CvCameraViewOverlay onAnalyzeFrame(CvCameraViewFrame frame);
+    };
+
+    /**
+     * Result of the analysis stage published back to the rendering thread.
+     */
+    public interface CvCameraViewOverlay {
+        /**
+         * This method is invoked on the rendering thread for every displayed frame until the
+         * analyzer publishes a new overlay. It must be cheap, e.g. draw a label or a contour.
+         * @param frame - the frame returned by the listener, about to be displayed
+         */
+        public void draw(Mat frame);
     };
 
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
@@ -254,6 +308,39 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             mFpsMeter = null;
     }
 
+    /**
+     * Returns the per-stage latency histograms and frame counters of this view.
+     * The metrics are reset every time the camera is started; call snapshot() on the
+     * returned object to read them from any thread.
+     */
+    public FrameMetrics getFrameMetrics() {
+        return mFrameMetrics;
+    }
+
+    /**
+     * This method switches the view to the pipeline mode: frames keep being delivered to the
+     * listener and drawn at camera rate, while the analyzer runs on its own executor over the
+     * latest frame. The overlay it returns is drawn over the preview until the next one is published.
+     * @param analyzer - the analysis stage, replaces the previous one if any
+     */
+    public void enableAnalysis(CvCameraViewAnalyzer analyzer) {
+        AnalysisPipeline previous = mAnalysisPipeline;
+        mAnalysisPipeline = new AnalysisPipeline(analyzer, mFrameMetrics);
+        if (previous != null)
+            previous.stop();
+    }
+
+    /**
+     * This method stops the analysis stage and clears the overlay.
+     * A running analysis is allowed to finish, but its result is discarded.
+     */
+    public void disableAnalysis() {
+        AnalysisPipeline previous = mAnalysisPipeline;
+        mAnalysisPipeline = null;
+        if (previous != null)
+            previous.stop();
+    }
+
     /**
      *
      * @param listener
@@ -351,6 +438,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     // NOTE: The order of bitmap constructor and camera connection is important for android 4.1.x
     // Bitmap must be constructed before surface
     private void onEnterStartedState() {
+        mFrameMetrics.reset();
         /* Connect camera */
         if (!connectCamera(getWidth(), getHeight())) {
             AlertDialog ad = new AlertDialog.Builder(getContext()).create();
@@ -381,7 +469,24 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
      * @param frame - the current frame to be delivered
      */
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
+        deliverAndDrawFrame(frame, System.nanoTime());
+    }
+
+    /**
+     * Same as deliverAndDrawFrame(CvCameraViewFrame), but lets the subclass report when
+     * the camera produced the frame, so the time it waited for delivery is measured.
+     * @param frame - the current frame to be delivered
+     * @param captureTimeNanos - System.nanoTime() when the frame was received from the camera
+     */
+    protected void deliverAndDrawFrame(CvCameraViewFrame frame, long captureTimeNanos) {
         Mat modified;
+        long stageStart = System.nanoTime();
+        mFrameMetrics.record(FrameMetrics.Stage.CAPTURE_WAIT, stageStart - captureTimeNanos);
+
+        /* Hand the untouched frame to the analysis stage before the listener may draw on it */
+        AnalysisPipeline pipeline = mAnalysisPipeline;
+        if (pipeline != null)
+            pipeline.offer(frame);
 
         if (mListener != null) {
             modified = mListener.onCameraFrame(frame);
@@ -389,6 +494,13 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             modified = frame.rgba();
         }
 
+        if (pipeline != null && modified != null)
+            pipeline.drawOverlay(modified);
+
+        long now = System.nanoTime();
+        mFrameMetrics.record(FrameMetrics.Stage.LISTENER, now - stageStart);
+        stageStart = now;
+
         boolean bmpValid = true;
         if (modified != null) {
             try {
@@ -401,6 +513,10 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             }
         }
 
+        now = System.nanoTime();
+        mFrameMetrics.record(FrameMetrics.Stage.MAT_TO_BITMAP, now - stageStart);
+        stageStart = now;
+
         if (bmpValid && mCacheBitmap != null) {
             Canvas canvas = getHolder().lockCanvas();
             if (canvas != null) {
@@ -428,6 +544,11 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                 getHolder().unlockCanvasAndPost(canvas);
             }
         }
+
+        now = System.nanoTime();
+        mFrameMetrics.record(FrameMetrics.Stage.DRAW, now - stageStart);
+        mFrameMetrics.record(FrameMetrics.Stage.TOTAL, now - captureTimeNanos);
+        mFrameMetrics.recordFrame(now);
     }
 
     /**
@@ -451,6 +572,147 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         mCacheBitmap = Bitmap.createBitmap(mFrameWidth, mFrameHeight, Bitmap.Config.ARGB_8888);
     }
 
+    /**
+     * Copy of a camera frame owned by the analysis stage, so the camera slot can be reused
+     * while the analyzer is still working on it. NV21 frames are copied as such, the gray
+     * Mat is a view of the copied Y plane and RGBA is converted on first access.
+     */
+    private static class SnapshotFrame implements CvCameraViewFrame {
+        public Mat rgba() {
+            if (!mRgbaValid) {
+                Imgproc.cvtColor(mNv21, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                mRgbaValid = true;
+            }
+            return mRgba;
+        }
+
+        public Mat gray() {
+            return mGray;
+        }
+
+        public Mat rgba(int level) {
+            return mRgbaPyramid.level(rgba(), level);
+        }
+
+        public Mat gray(int level) {
+            return mGrayPyramid.level(mGray, level);
+        }
+
+        public void copyFrom(CvCameraViewFrame frame) {
+            if (frame instanceof Nv21Frame) {
+                ((Nv21Frame) frame).nv21().copyTo(mNv21);
+                int height = mNv21.rows() * 2 / 3;
+                /* copyTo() only reallocates when the preview size changes, the view is kept until then */
+                if (!mGrayOfNv21 || mGray.rows() != height || mGray.cols() != mNv21.cols()) {
+                    mGray.release();
+                    mGray = mNv21.submat(0, height, 0, mNv21.cols());
+                    mGrayOfNv21 = true;
+                }
+                mRgbaValid = false;
+            } else {
+                if (mGrayOfNv21) {
+                    mGray.release();
+                    mGray = new Mat();
+                    mGrayOfNv21 = false;
+                }
+                frame.gray().copyTo(mGray);
+                frame.rgba().copyTo(mRgba);
+                mRgbaValid = true;
+            }
+            mRgbaPyramid.invalidate();
+            mGrayPyramid.invalidate();
+        }
+
+        public void release() {
+            mGray.release();
+            mRgba.release();
+            mNv21.release();
+            mRgbaPyramid.release();
+            mGrayPyramid.release();
+        }
+
+        private Mat mRgba = new Mat();
+        private Mat mGray = new Mat();
+        private Mat mNv21 = new Mat();
+        /* mGray is a view of the Y plane of mNv21 */
+        private boolean mGrayOfNv21;
+        /* mRgba holds the conversion of the current frame */
+        private boolean mRgbaValid;
+        private FramePyramid mRgbaPyramid = new FramePyramid();
+        private FramePyramid mGrayPyramid = new FramePyramid();
+    };
+
+    private static class AnalysisPipeline implements Runnable {
+        public AnalysisPipeline(CvCameraViewAnalyzer analyzer, FrameMetrics metrics) {
+            mAnalyzer = analyzer;
+            mMetrics = metrics;
+            mExecutor = Executors.newSingleThreadExecutor();
+        }
+
+        /**
+         * Called on the rendering thread. Copies the frame and schedules the analysis
+         * only when the previous one has completed, so the analyzer always sees the latest frame.
+         */
+        public void offer(CvCameraViewFrame frame) {
+            synchronized (this) {
+                if (mBusy || mStopped)
+                    return;
+                mSnapshot.copyFrom(frame);
+                mBusy = true;
+            }
+
+            try {
+                mExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    mBusy = false;
+                }
+            }
+        }
+
+        public void drawOverlay(Mat frame) {
+            CvCameraViewOverlay overlay = mOverlay;
+            if (overlay != null)
+                overlay.draw(frame);
+        }
+
+        public void run() {
+            try {
+                long start = System.nanoTime();
+                CvCameraViewOverlay overlay = mAnalyzer.onAnalyzeFrame(mSnapshot);
+                mMetrics.record(FrameMetrics.Stage.ANALYSIS, System.nanoTime() - start);
+                if (!mStopped)
+                    mOverlay = overlay;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Frame analysis failed: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    mBusy = false;
+                    if (mStopped)
+                        mSnapshot.release();
+                }
+            }
+        }
+
+        public void stop() {
+            synchronized (this) {
+                mStopped = true;
+                mOverlay = null;
+                if (!mBusy)
+                    mSnapshot.release();
+            }
+            mExecutor.shutdown();
+        }
+
+        private final CvCameraViewAnalyzer mAnalyzer;
+        private final FrameMetrics mMetrics;
+        private final ExecutorService mExecutor;
+        private final SnapshotFrame mSnapshot = new SnapshotFrame();
+        private volatile CvCameraViewOverlay mOverlay;
+        private volatile boolean mStopped;
+        private boolean mBusy;
+    };
+
     public interface ListItemAccessor {
         public int getWidth(Object obj);
         public int getHeight(Object obj);
@@ -0,0 +1,166 @@
+package org.opencv.android;
+
+import java.util.Locale;
+
+/**
+ * Per-frame latency and throughput telemetry of a CameraBridgeViewBase.
+ * Every delivered frame records the time spent in each stage of the delivery path into
+ * a LatencyHistogram, snapshots can be taken at any time from any thread.
+ */
+public class FrameMetrics {
+
+    public enum Stage {
+        /** From the moment the camera delivered the frame to the start of deliverAndDrawFrame() */
+        CAPTURE_WAIT,
+        /** onCameraFrame() of the listener */
+        LISTENER,
+        /** Utils.matToBitmap() of the frame returned by the listener */
+        MAT_TO_BITMAP,
+        /** Locking the canvas, drawing the bitmap and posting it */
+        DRAW,
+        /** From the camera delivery to the frame being posted */
+        TOTAL,
+        /** onAnalyzeFrame() of the analyzer in the pipeline mode */
+        ANALYSIS
+    }
+
+    private final LatencyHistogram[] mHistograms;
+    private long mDroppedFrames;
+    private long mFirstFrameNanos;
+    private long mLastFrameNanos;
+    private long mFrames;
+
+    public FrameMetrics() {
+        Stage[] stages = Stage.values();
+        mHistograms = new LatencyHistogram[stages.length];
+        for (int i = 0; i < stages.length; i++)
+            mHistograms[i] = new LatencyHistogram();
+    }
+
+    public synchronized void record(Stage stage, long nanos) {
+        mHistograms[stage.ordinal()].recordNanos(nanos);
+    }
+
+    /**
+     * Marks the end of the delivery of one frame, used for the throughput.
+     */
+    public synchronized void recordFrame(long frameEndNanos) {
+        if (mFrames == 0)
+            mFirstFrameNanos = frameEndNanos;
+        mLastFrameNanos = frameEndNanos;
+        mFrames++;
+    }
+
+    public synchronized void recordDroppedFrame() {
+        mDroppedFrames++;
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram h : mHistograms)
+            h.reset();
+        mDroppedFrames = 0;
+        mFrames = 0;
+        mFirstFrameNanos = 0;
+        mLastFrameNanos = 0;
+    }
+
+    public synchronized Snapshot snapshot() {
+        Stage[] stages = Stage.values();
+        StageStats[] stats = new StageStats[stages.length];
+        for (int i = 0; i < stages.length; i++)
+            stats[i] = new StageStats(stages[i], mHistograms[i]);
+
+        double fps = 0;
+        if (mFrames > 1 && mLastFrameNanos > mFirstFrameNanos)
+            fps = (mFrames - 1) * 1e9 / (mLastFrameNanos - mFirstFrameNanos);
+        return new Snapshot(stats, mFrames, mDroppedFrames, fps);
+    }
+
+    /**
+     * Latency summary of one stage, all values in microseconds.
+     */
+    public static class StageStats {
+        public final Stage stage;
+        public final long count;
+        public final double mean;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+        public final long max;
+
+        StageStats(Stage stage, LatencyHistogram h) {
+            this.stage = stage;
+            count = h.getCount();
+            mean = h.getMean();
+            p50 = h.getValueAtPercentile(50);
+            p95 = h.getValueAtPercentile(95);
+            p99 = h.getValueAtPercentile(99);
+            max = h.getMax();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: n=%d mean=%.1fus p50=%dus p95=%dus p99=%dus max=%dus",
+                    stage, count, mean, p50, p95, p99, max);
+        }
+    }
+
+    /**
+     * Immutable copy of the metrics at the time snapshot() was called.
+     */
+    public static class Snapshot {
+        private final StageStats[] mStats;
+        private final long mFrames;
+        private final long mDroppedFrames;
+        private final double mFps;
+
+        Snapshot(StageStats[] stats, long frames, long droppedFrames, double fps) {
+            mStats = stats;
+            mFrames = frames;
+            mDroppedFrames = droppedFrames;
+            mFps = fps;
+        }
+
+        public StageStats get(Stage stage) {
+            return mStats[stage.ordinal()];
+        }
+
+        public long getFrameCount() {
+            return mFrames;
+        }
+
+        public long getDroppedFrameCount() {
+            return mDroppedFrames;
+        }
+
+        public double getFps() {
+            return mFps;
+        }
+
+        /**
+         * Exports the snapshot as CSV: one row per stage with latencies in microseconds,
+         * followed by rows for the delivered and dropped frame counts and the throughput.
+         */
+        public String toCsv() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("stage,count,mean_us,p50_us,p95_us,p99_us,max_us\n");
+            for (StageStats s : mStats) {
+                sb.append(String.format(Locale.US, "%s,%d,%.1f,%d,%d,%d,%d\n",
+                        s.stage, s.count, s.mean, s.p50, s.p95, s.p99, s.max));
+            }
+            sb.append("frames,").append(mFrames).append(",,,,,\n");
+            sb.append("dropped,").append(mDroppedFrames).append(",,,,,\n");
+            sb.append(String.format(Locale.US, "fps,%.2f,,,,,\n", mFps));
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "frames=%d dropped=%d fps=%.2f", mFrames, mDroppedFrames, mFps));
+            for (StageStats s : mStats)
+                sb.append('\n').append(s);
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.opencv.android;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Lazily computed chain of downscaled copies of one frame representation.
+ * Level n is the base image reduced n times by Imgproc.pyrDown(), i.e. 1/2^n of its size.
+ * Every level is computed at most once until invalidate() is called for the next frame.
+ */
+class FramePyramid {
+    public static final int MAX_LEVEL = 6;
+
+    private final Mat[] mLevels = new Mat[MAX_LEVEL + 1];
+    private int mValidLevels;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * Returns the requested level, computing the missing levels from the closest valid one.
+     * @param base - level 0, must be valid for the current frame
+     * @param level - pyramid level, 0 returns base itself
+     */
+    public Mat level(Mat base, int level) {
+        if (level < 0 || level > MAX_LEVEL)
+            throw new IllegalArgumentException("Pyramid level must be in [0, " + MAX_LEVEL + "], got " + level);
+        if (level == 0)
+            return base;
+
+        if (level <= mValidLevels) {
+            mHits++;
+            return mLevels[level];
+        }
+
+        for (int i = mValidLevels + 1; i <= level; i++) {
+            if (mLevels[i] == null)
+                mLevels[i] = new Mat();
+            Imgproc.pyrDown(i == 1 ? base : mLevels[i - 1], mLevels[i]);
+            mMisses++;
+        }
+        mValidLevels = level;
+        return mLevels[level];
+    }
+
+    public void invalidate() {
+        mValidLevels = 0;
+    }
+
+    public long getHitCount() {
+        return mHits;
+    }
+
+    public long getMissCount() {
+        return mMisses;
+    }
+
+    public void release() {
+        for (int i = 1; i <= MAX_LEVEL; i++) {
+            if (mLevels[i] != null)
+                mLevels[i].release();
+        }
+        mValidLevels = 0;
+    }
+}
@@ -14,6 +14,7 @@ import android.view.ViewGroup.LayoutParams;
 
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatPool;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
@@ -25,20 +26,56 @@ import org.opencv.imgproc.Imgproc;
  * disconnectCamera - closes the camera and stops preview.
  * When frame is delivered via callback from Camera - it processed via OpenCV to be
  * converted to RGBA32 and then passed to the external callback for modifications if required.
+ * The preview callback only queues the camera buffer. The NV21 data is copied into the frame
+ * Mat by the processing thread right before delivery, so frames dropped by the backpressure
+ * policy are never copied and no copy happens while the view's monitor is held.
  */
 public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallback {
 
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
 
-    private byte mBuffer[];
-    private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    private static final int DEFAULT_FRAME_BUFFER_COUNT = 2;
+
+    /**
+     * Describes what happens to a new preview frame when the frame queue is full,
+     * i.e. the listener is slower than the camera.
+     */
+    public enum BackpressurePolicy {
+        /** The oldest queued frame is discarded and its buffer handed back to the camera. */
+        DROP_OLDEST,
+        /** The new frame is discarded, queued frames are delivered unchanged. */
+        DROP_NEWEST,
+        /**
+         * The camera callback waits until the processing thread takes a frame from the queue.
+         * Attention: this stalls the thread the camera was opened on.
+         */
+        BLOCK
+    }
+
+    private byte mBuffers[][];
+    private Mat mFrameData;
+    private int mFrameBufferCount = DEFAULT_FRAME_BUFFER_COUNT;
+    private BackpressurePolicy mBackpressurePolicy = BackpressurePolicy.DROP_OLDEST;
+
+    /* Frame queue, guarded by this. Holds camera buffers in arrival order as a FIFO ring. */
+    private byte[][] mReadyBuffers;
+    private long[] mReadyTimestamps;
+    private int mReadyHead;
+    private int mReadyCount;
+    private long mDroppedFrames;
+    private long mDeliveredFrames;
+    private long mIngestedBytes;
+    private long mIngestTimeNanos;
+    /* Counters of mCameraFrame, which only the processing thread touches, published after every frame */
+    private long mFrameCacheHits;
+    private long mFrameCacheMisses;
+
     private Thread mThread;
     private boolean mStopThread;
 
     protected Camera mCamera;
-    protected JavaCameraFrame[] mCameraFrame;
+    protected JavaCameraFrame mCameraFrame;
     private SurfaceTexture mSurfaceTexture;
 
     public static class JavaCameraSizeAccessor implements ListItemAccessor {
@@ -62,6 +99,88 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         super(context, attrs);
     }
 
+    /**
+     * Sets the number of preview frames that can be queued for the processing thread.
+     * The new value is applied the next time the camera is connected.
+     * @param count - capacity of the frame queue, at least 2
+     */
+    public void setFrameBufferCount(int count) {
+        if (count < 2)
+            throw new IllegalArgumentException("At least 2 frame buffers are required, got " + count);
+        mFrameBufferCount = count;
+    }
+
+    public int getFrameBufferCount() {
+        return mFrameBufferCount;
+    }
+
+    /**
+     * Sets the policy applied when the listener is slower than the camera and the frame ring is full.
+     * @param policy - the new policy, takes effect immediately
+     */
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException("Backpressure policy must not be null");
+        synchronized (this) {
+            mBackpressurePolicy = policy;
+            this.notifyAll();
+        }
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return mBackpressurePolicy;
+    }
+
+    /**
+     * @return number of preview frames discarded by the backpressure policy since the camera was connected
+     */
+    public synchronized long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * @return number of preview frames delivered to the listener since the camera was connected
+     */
+    public synchronized long getDeliveredFrameCount() {
+        return mDeliveredFrames;
+    }
+
+    /**
+     * @return number of preview frames currently waiting for the processing thread
+     */
+    public synchronized int getQueueDepth() {
+        return mReadyCount;
+    }
+
+    /**
+     * @return number of frame representation requests (rgba, gray and their pyramid levels)
+     * served from the per-frame conversion cache since the camera was connected
+     */
+    public synchronized long getFrameCacheHitCount() {
+        return mFrameCacheHits;
+    }
+
+    /**
+     * @return number of frame representations computed since the camera was connected
+     */
+    public synchronized long getFrameCacheMissCount() {
+        return mFrameCacheMisses;
+    }
+
+    /**
+     * @return number of NV21 bytes copied from camera buffers into the frame Mat since the camera was connected
+     */
+    public synchronized long getIngestedByteCount() {
+        return mIngestedBytes;
+    }
+
+    /**
+     * @return total time in nanoseconds spent copying camera buffers into the frame Mat since the camera was connected
+     */
+    public synchronized long getIngestTimeNanos() {
+        return mIngestTimeNanos;
+    }
+
     protected boolean initializeCamera(int width, int height) {
         Log.d(TAG, "Initialize java camera");
         boolean result = true;
@@ -172,20 +291,32 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
 
-                    mCamera.addCallbackBuffer(mBuffer);
+                    /* Besides the queued frames, one buffer is being copied by the processing
+                     * thread and one is being filled by the camera */
+                    mBuffers = new byte[mFrameBufferCount + 2][];
+                    for (int i = 0; i < mBuffers.length; i++) {
+                        mBuffers[i] = new byte[size];
+                        mCamera.addCallbackBuffer(mBuffers[i]);
+                    }
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                    mReadyBuffers = new byte[mFrameBufferCount][];
+                    mReadyTimestamps = new long[mFrameBufferCount];
+                    mReadyHead = 0;
+                    mReadyCount = 0;
+                    mDroppedFrames = 0;
+                    mDeliveredFrames = 0;
+                    mIngestedBytes = 0;
+                    mIngestTimeNanos = 0;
+                    mFrameCacheHits = 0;
+                    mFrameCacheMisses = 0;
+
+                    mFrameData = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
 
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    mCameraFrame = new JavaCameraFrame(mFrameData, mFrameWidth, mFrameHeight);
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -217,14 +348,15 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
-            if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+            if (mFrameData != null) {
+                mFrameData.release();
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                mCameraFrame.release();
             }
+            mBuffers = null;
+            mReadyBuffers = null;
+            mReadyCount = 0;
         }
     }
 
@@ -257,7 +389,7 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             mStopThread = true;
             Log.d(TAG, "Notify thread");
             synchronized (this) {
-                this.notify();
+                this.notifyAll();
             }
             Log.d(TAG, "Wating for thread");
             if (mThread != null)
@@ -274,38 +406,145 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
     public void onPreviewFrame(byte[] frame, Camera arg1) {
         Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
+        long timestamp = System.nanoTime();
         synchronized (this) {
-            mFrameChain[1 - mChainIdx].put(0, 0, frame);
-            this.notify();
+            byte[] recycled = enqueueFrame(frame, timestamp);
+            this.notifyAll();
+            /* Under the same lock as the worker and releaseCamera(), so mCamera cannot go away in between */
+            if (recycled != null && mCamera != null)
+                mCamera.addCallbackBuffer(recycled);
+        }
+    }
+
+    /**
+     * Queues the camera buffer for the processing thread, applying the backpressure
+     * policy when the queue is full. Called when this lock is held.
+     * @return buffer to give back to the camera right away or null if it stays queued
+     */
+    private byte[] enqueueFrame(byte[] frame, long timestamp) {
+        if (mReadyBuffers == null)
+            return frame;
+
+        byte[] recycled = null;
+        if (mReadyCount == mReadyBuffers.length) {
+            switch (mBackpressurePolicy) {
+            case DROP_OLDEST:
+                recycled = mReadyBuffers[mReadyHead];
+                mReadyBuffers[mReadyHead] = null;
+                mReadyHead = (mReadyHead + 1) % mReadyBuffers.length;
+                mReadyCount--;
+                break;
+            case DROP_NEWEST:
+                dropFrame();
+                return frame;
+            case BLOCK:
+                while (mReadyBuffers != null && mReadyCount == mReadyBuffers.length && !mStopThread
+                        && mBackpressurePolicy == BackpressurePolicy.BLOCK) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if (mReadyBuffers == null || mReadyCount == mReadyBuffers.length) {
+                    if (mReadyBuffers != null && !mStopThread && !Thread.currentThread().isInterrupted())
+                        return enqueueFrame(frame, timestamp);
+                    dropFrame();
+                    return frame;
+                }
+                break;
+            }
+            if (recycled != null)
+                dropFrame();
         }
-        if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
+
+        int tail = (mReadyHead + mReadyCount) % mReadyBuffers.length;
+        mReadyBuffers[tail] = frame;
+        mReadyTimestamps[tail] = timestamp;
+        mReadyCount++;
+        return recycled;
+    }
+
+    private void dropFrame() {
+        mDroppedFrames++;
+        mFrameMetrics.recordDroppedFrame();
     }
 
-    private class JavaCameraFrame implements CvCameraViewFrame {
+    /**
+     * Frame view over the NV21 frame Mat. Every representation is converted at most once per frame,
+     * so the listener, the listener adapter and the view itself can all ask for it.
+     * The cache is invalidated when new camera data is copied into the frame Mat.
+     * Only the processing thread uses the frame, including its counters.
+     */
+    private class JavaCameraFrame implements CvCameraViewFrame, Nv21Frame {
+        public Mat nv21() {
+            return mYuvFrameData;
+        }
+
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            return mGray;
         }
 
         public Mat rgba() {
-            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            if (mRgbaValid) {
+                mHits++;
+            } else {
+                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                mRgbaValid = true;
+                mMisses++;
+            }
             return mRgba;
         }
 
+        public Mat rgba(int level) {
+            return mRgbaPyramid.level(rgba(), level);
+        }
+
+        public Mat gray(int level) {
+            return mGrayPyramid.level(gray(), level);
+        }
+
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
             super();
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
-            mRgba = new Mat();
+            /* The Y plane is not reallocated by Mat.put(), so one header serves every frame */
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            /* Reconnecting with the same preview size reuses the RGBA buffer */
+            mRgba = MatPool.getDefault().acquire(mHeight, mWidth, CvType.CV_8UC4);
+        }
+
+        public void invalidate() {
+            mRgbaValid = false;
+            mRgbaPyramid.invalidate();
+            mGrayPyramid.invalidate();
+        }
+
+        public long getHitCount() {
+            return mHits + mRgbaPyramid.getHitCount() + mGrayPyramid.getHitCount();
+        }
+
+        public long getMissCount() {
+            return mMisses + mRgbaPyramid.getMissCount() + mGrayPyramid.getMissCount();
         }
 
         public void release() {
-            mRgba.release();
+            MatPool.getDefault().recycle(mRgba);
+            mGray.release();
+            mRgbaPyramid.release();
+            mGrayPyramid.release();
         }
 
         private Mat mYuvFrameData;
         private Mat mRgba;
+        private Mat mGray;
+        private boolean mRgbaValid;
+        private FramePyramid mRgbaPyramid = new FramePyramid();
+        private FramePyramid mGrayPyramid = new FramePyramid();
+        private long mHits;
+        private long mMisses;
         private int mWidth;
         private int mHeight;
     };
@@ -314,19 +553,52 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         public void run() {
             do {
+                byte[] frame = null;
+                long timestamp = 0;
                 synchronized (JavaCameraView.this) {
                     try {
-                        JavaCameraView.this.wait();
+                        while (mReadyCount == 0 && !mStopThread)
+                            JavaCameraView.this.wait();
                     } catch (InterruptedException e) {
                         // TODO Auto-generated catch block
                         e.printStackTrace();
                     }
+
+                    if (!mStopThread && mReadyCount > 0) {
+                        frame = mReadyBuffers[mReadyHead];
+                        timestamp = mReadyTimestamps[mReadyHead];
+                        mReadyBuffers[mReadyHead] = null;
+                        mReadyHead = (mReadyHead + 1) % mReadyBuffers.length;
+                        mReadyCount--;
+                        /* A queue slot became free, wake up a blocked camera callback */
+                        JavaCameraView.this.notifyAll();
+                    }
                 }
 
-                if (!mStopThread) {
-                    if (!mFrameChain[mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[mChainIdx]);
-                    mChainIdx = 1 - mChainIdx;
+                if (frame != null) {
+                    /* The single copy of the frame, done outside of the lock */
+                    long start = System.nanoTime();
+                    mFrameData.put(0, 0, frame);
+                    mCameraFrame.invalidate();
+                    long ingestTime = System.nanoTime() - start;
+
+                    synchronized (JavaCameraView.this) {
+                        mIngestedBytes += frame.length;
+                        mIngestTimeNanos += ingestTime;
+                        if (mCamera != null)
+                            mCamera.addCallbackBuffer(frame);
+                    }
+
+                    if (!mFrameData.empty())
+                        deliverAndDrawFrame(mCameraFrame, timestamp);
+                    long hits = mCameraFrame.getHitCount();
+                    long misses = mCameraFrame.getMissCount();
+
+                    synchronized (JavaCameraView.this) {
+                        mDeliveredFrames++;
+                        mFrameCacheHits = hits;
+                        mFrameCacheMisses = misses;
+                    }
                 }
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");
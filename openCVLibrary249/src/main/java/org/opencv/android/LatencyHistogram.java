@@ -0,0 +1,100 @@
+package org.opencv.android;
+
+/**
+ * Fixed-size latency histogram with logarithmic buckets split into linear sub-buckets,
+ * in the spirit of HdrHistogram. Values are recorded in microseconds, every bucket covers
+ * at most 1/16 of its lower bound, so reported percentiles are within ~6% of the exact value.
+ * Recording does not allocate. The class is not thread safe, callers synchronize.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int MAX_VALUE_BITS = 36;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    private final long[] mCounts = new long[(MAX_VALUE_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKET_HALF];
+    private long mTotalCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    /**
+     * Records one value.
+     * @param micros - latency in microseconds, negative values are recorded as 0
+     */
+    public void record(long micros) {
+        long v = micros < 0 ? 0 : (micros > MAX_VALUE ? MAX_VALUE : micros);
+        mCounts[indexOf(v)]++;
+        mTotalCount++;
+        mSum += v;
+        if (v < mMin)
+            mMin = v;
+        if (v > mMax)
+            mMax = v;
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getMin() {
+        return mTotalCount == 0 ? 0 : mMin;
+    }
+
+    public double getMean() {
+        return mTotalCount == 0 ? 0 : (double) mSum / mTotalCount;
+    }
+
+    /**
+     * @param percentile - value in (0, 100]
+     * @return the highest value equivalent to the bucket the percentile falls in, capped by the maximum recorded value
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0)
+            return 0;
+        long target = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * mTotalCount);
+        if (target < 1)
+            target = 1;
+        long cumulative = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            cumulative += mCounts[i];
+            if (cumulative >= target)
+                return Math.min(highestEquivalentValue(i), mMax);
+        }
+        return mMax;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++)
+            mCounts[i] = 0;
+        mTotalCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    /* Values below SUB_BUCKET_COUNT map 1:1, larger ones keep their SUB_BUCKET_BITS most significant bits */
+    private static int indexOf(long v) {
+        if (v < SUB_BUCKET_COUNT)
+            return (int) v;
+        int shift = (63 - Long.numberOfLeadingZeros(v)) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF + (int) (v >>> shift);
+    }
+
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long top = index - shift * SUB_BUCKET_HALF;
+        return (top << shift) + (1L << shift) - 1;
+    }
+}
@@ -149,6 +149,18 @@ public class NativeCameraView extends CameraBridgeViewBase {
             return mGray;
         }
 
+        @Override
+        public Mat rgba(int level) {
+            mRgbaPyramid.invalidate();
+            return mRgbaPyramid.level(rgba(), level);
+        }
+
+        @Override
+        public Mat gray(int level) {
+            mGrayPyramid.invalidate();
+            return mGrayPyramid.level(gray(), level);
+        }
+
         public NativeCameraFrame(VideoCapture capture) {
             mCapture = capture;
             mGray = new Mat();
@@ -158,11 +170,15 @@ public class NativeCameraView extends CameraBridgeViewBase {
         public void release() {
             if (mGray != null) mGray.release();
             if (mRgba != null) mRgba.release();
+            mRgbaPyramid.release();
+            mGrayPyramid.release();
         }
 
         private VideoCapture mCapture;
         private Mat mRgba;
         private Mat mGray;
+        private FramePyramid mRgbaPyramid = new FramePyramid();
+        private FramePyramid mGrayPyramid = new FramePyramid();
     };
 
     private class CameraWorker implements Runnable {
@@ -174,7 +190,7 @@ public class NativeCameraView extends CameraBridgeViewBase {
                     break;
                 }
 
-                deliverAndDrawFrame(mFrame);
+                deliverAndDrawFrame(mFrame, System.nanoTime());
             } while (!mStopThread);
         }
     }
@@ -0,0 +1,256 @@
+package org.opencv.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the records written by BinaryMatWriter, either streamed from an InputStream or from a
+ * memory-mapped file. The data of a record is copied into its Mat in bulk chunks, from the
+ * mapped pages when the file is mapped, without any parsing. Java cannot hand native code a
+ * Mat over the mapping itself, so one copy into the Mat remains.
+ * The records have to be read in the order they were written, skip() passes over one.
+ * Truncated or corrupted input raises an IOException. A mapped record is checked against the
+ * size of the file before its Mat is allocated, a streamed one only as its data is read.
+ */
+public class BinaryMatReader implements Closeable {
+
+    /* Size of the chunks the data of large Mats is transferred in */
+    private static final int CHUNK_ELEMENTS = 16 * 1024;
+    /* CV_CN_MAX, the most channels a native Mat can have */
+    private static final int MAX_CHANNELS = 512;
+
+    /* Exactly one of them is set: the whole file, or the stream records are read from */
+    private final ByteBuffer mMapped;
+    private final ReadableByteChannel mChannel;
+    private final Closeable mSource;
+
+    private ByteBuffer mBuffer;
+    private final BinaryMatWriter.Scratch mScratch = new BinaryMatWriter.Scratch();
+    private final int[] mHeader = new int[3];
+    private boolean mPeeked;
+    private boolean mEnd;
+
+    /**
+     * Reads records streamed from in, starting with the file header.
+     */
+    public BinaryMatReader(InputStream in) throws IOException {
+        mMapped = null;
+        mChannel = Channels.newChannel(in);
+        mSource = mChannel;
+        mBuffer = ByteBuffer.allocate(CHUNK_ELEMENTS * 8).order(ByteOrder.LITTLE_ENDIAN);
+        checkHeader(read(BinaryMatWriter.HEADER_BYTES, true));
+    }
+
+    /**
+     * Reads the records of a buffer holding a whole file, e.g. a MappedByteBuffer.
+     */
+    public BinaryMatReader(ByteBuffer buffer) throws IOException {
+        mMapped = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        mChannel = null;
+        mSource = null;
+        checkHeader(read(BinaryMatWriter.HEADER_BYTES, true));
+    }
+
+    /**
+     * Maps file read-only and reads its records from the mapping. The file can be closed right
+     * away, the mapping stays valid until it is garbage collected.
+     */
+    public static BinaryMatReader map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new BinaryMatReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void checkHeader(ByteBuffer header) throws IOException {
+        int magic = header.getInt();
+        int version = header.getInt();
+        if (magic != BinaryMatWriter.MAGIC)
+            throw new IOException("Not a binary Mat file, magic " + Integer.toHexString(magic));
+        if (version != BinaryMatWriter.VERSION)
+            throw new IOException("Unsupported binary Mat version " + version);
+    }
+
+    /**
+     * @return true if there is another record to read
+     */
+    public boolean hasNext() throws IOException {
+        return peek();
+    }
+
+    /**
+     * Reads the next record into m, which is reallocated only if its size or type differ.
+     * @return m
+     */
+    public Mat read(Mat m) throws IOException {
+        if (!peek())
+            throw new EOFException("No more records");
+        mPeeked = false;
+        int type = mHeader[0];
+        int rows = mHeader[1];
+        int cols = mHeader[2];
+        if (rows == 0 || cols == 0) {
+            m.release();
+            return m;
+        }
+        m.create(rows, cols, type);
+        readElements(m, rows * cols * CvType.channels(type), type);
+        return m;
+    }
+
+    /**
+     * Reads the next record, which must hold keypoints.
+     */
+    public MatOfKeyPoint readKeyPoints(MatOfKeyPoint keypoints) throws IOException {
+        if (!peek())
+            throw new EOFException("No more records");
+        if (mHeader[1] != 0 && mHeader[2] != 0 && (mHeader[0] != CvType.CV_32FC(KeyPointBuffer.CHANNELS) || mHeader[2] != 1))
+            throw new IOException("Record is not a keypoint set: " + CvType.typeToString(mHeader[0]) +
+                    " " + mHeader[1] + "x" + mHeader[2]);
+        read(keypoints);
+        return keypoints;
+    }
+
+    /**
+     * Passes over the next record without reading its data.
+     */
+    public void skip() throws IOException {
+        if (!peek())
+            throw new EOFException("No more records");
+        mPeeked = false;
+        long remaining = dataBytes();
+        if (mMapped != null) {
+            mMapped.position(mMapped.position() + (int) remaining);
+            return;
+        }
+        while (remaining > 0) {
+            int n = (int) Math.min(remaining, mBuffer.capacity());
+            read(n, true);
+            remaining -= n;
+        }
+    }
+
+    /* Reads the header of the next record if it is not read yet, false at the end */
+    private boolean peek() throws IOException {
+        if (mPeeked)
+            return true;
+        if (mEnd)
+            return false;
+        ByteBuffer header = read(BinaryMatWriter.RECORD_HEADER_BYTES, false);
+        if (header == null) {
+            mEnd = true;
+            return false;
+        }
+        mHeader[0] = header.getInt();
+        mHeader[1] = header.getInt();
+        mHeader[2] = header.getInt();
+        int type = mHeader[0];
+        if (mHeader[1] < 0 || mHeader[2] < 0 || type < 0 || CvType.depth(type) > CvType.CV_64F ||
+                CvType.channels(type) > MAX_CHANNELS)
+            throw new IOException("Corrupted record header: type " + type + ", " + mHeader[1] + "x" + mHeader[2]);
+        if (dataBytes() > Integer.MAX_VALUE)
+            throw new IOException("Record too large: " + mHeader[1] + "x" + mHeader[2] + " " + CvType.typeToString(type));
+        // a mapped file tells its size, reject a truncated record before read() allocates its Mat
+        if (mMapped != null && dataBytes() > mMapped.remaining())
+            throw new EOFException("Truncated binary Mat data: record of " + dataBytes() + " bytes, " +
+                    mMapped.remaining() + " left");
+        mPeeked = true;
+        return true;
+    }
+
+    private long dataBytes() {
+        return (long) mHeader[1] * mHeader[2] * CvType.ELEM_SIZE(mHeader[0]);
+    }
+
+    /* Copies count channel values of the current record into the continuous Mat m */
+    private void readElements(Mat m, int count, int type) throws IOException {
+        int channels = CvType.channels(type);
+        int elemBytes = CvType.ELEM_SIZE(type) / channels;
+        int step = CHUNK_ELEMENTS / channels * channels;
+        int cols = m.cols();
+        for (int done = 0; done < count; ) {
+            int n = Math.min(step, count - done);
+            ByteBuffer src = read(n * elemBytes, true);
+            int pixel = done / channels;
+            int row = pixel / cols;
+            int col = pixel % cols;
+            switch (CvType.depth(type)) {
+                case CvType.CV_8U:
+                case CvType.CV_8S:
+                    m.put(row, col, src);
+                    break;
+                case CvType.CV_16U:
+                case CvType.CV_16S:
+                    short[] s = mScratch.shorts(n);
+                    src.asShortBuffer().get(s, 0, n);
+                    m.put(row, col, s, 0, n);
+                    break;
+                case CvType.CV_32S:
+                    m.put(row, col, src.asIntBuffer());
+                    break;
+                case CvType.CV_32F:
+                    m.put(row, col, src.asFloatBuffer());
+                    break;
+                default:
+                    double[] d = mScratch.doubles(n);
+                    src.asDoubleBuffer().get(d, 0, n);
+                    m.put(row, col, d, 0, n);
+                    break;
+            }
+            done += n;
+        }
+    }
+
+    /*
+     * Returns a little endian buffer with the next length bytes and moves past them.
+     * At the end of the input returns null if the bytes are not required and throws otherwise.
+     */
+    private ByteBuffer read(int length, boolean required) throws IOException {
+        if (mMapped != null) {
+            if (mMapped.remaining() == 0 && !required)
+                return null;
+            if (mMapped.remaining() < length)
+                throw new EOFException("Truncated binary Mat data");
+            ByteBuffer src = mMapped.slice();
+            src.limit(length);
+            src.order(ByteOrder.LITTLE_ENDIAN);
+            mMapped.position(mMapped.position() + length);
+            return src;
+        }
+
+        if (mBuffer.capacity() < length)
+            mBuffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        mBuffer.clear();
+        mBuffer.limit(length);
+        while (mBuffer.hasRemaining()) {
+            if (mChannel.read(mBuffer) < 0) {
+                if (mBuffer.position() == 0 && !required)
+                    return null;
+                throw new EOFException("Truncated binary Mat data");
+            }
+        }
+        mBuffer.flip();
+        return mBuffer;
+    }
+
+    /**
+     * Closes the stream, if the reader reads one.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mSource != null)
+            mSource.close();
+    }
+}
@@ -0,0 +1,191 @@
+package org.opencv.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes Mats, such as keypoints and descriptors, to a stream in a compact binary format that
+ * BinaryMatReader loads without any parsing, as opposed to the XML/YAML of FileStorage.
+ * Records are appended one at a time, so a writer can stream any number of them.
+ *
+ * Layout, little endian:
+ *   int magic, int version, then per record
+ *   int type, int rows, int cols, rows * cols * CvType.ELEM_SIZE(type) bytes of data in row order
+ * A MatOfKeyPoint is a CV_32FC7 record of one column, 7 floats per keypoint
+ * (x, y, size, angle, response, octave, class_id). Descriptors keep their own type.
+ */
+public class BinaryMatWriter implements Closeable {
+
+    public static final int MAGIC = 0x4d56434f; // "OCVM"
+    public static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_HEADER_BYTES = 12;
+
+    /* Size of the chunks the data of large Mats is written in */
+    private static final int CHUNK_ELEMENTS = 16 * 1024;
+
+    private final WritableByteChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final Scratch mScratch = new Scratch();
+
+    /**
+     * Writes the file header to out.
+     */
+    public BinaryMatWriter(OutputStream out) throws IOException {
+        mChannel = Channels.newChannel(out);
+        mBuffer = ByteBuffer.allocate(CHUNK_ELEMENTS * 8).order(ByteOrder.LITTLE_ENDIAN);
+        mBuffer.putInt(MAGIC).putInt(VERSION);
+        drain();
+    }
+
+    /**
+     * Appends the keypoints as a CV_32FC7 record.
+     */
+    public void writeKeyPoints(MatOfKeyPoint keypoints) throws IOException {
+        if (!keypoints.empty() && keypoints.type() != CvType.CV_32FC(KeyPointBuffer.CHANNELS))
+            throw new IllegalArgumentException("Keypoints must be of CV_32FC7 type\n" + keypoints);
+        write(keypoints);
+    }
+
+    /**
+     * Appends one Mat of any type, its data is written in row order even if it is not continuous.
+     */
+    public void write(Mat m) throws IOException {
+        int type = m.type();
+        int rows = m.rows();
+        int cols = m.cols();
+        if (m.dims() > 2)
+            throw new IllegalArgumentException("Only 2D Mats can be written\n" + m);
+        mBuffer.putInt(type).putInt(rows).putInt(cols);
+        drain();
+        if (rows == 0 || cols == 0)
+            return;
+
+        // a row at a time for submats, whole chunks for continuous Mats
+        int channels = CvType.channels(type);
+        int rowElements = cols * channels;
+        if (m.isContinuous()) {
+            writeElements(m, 0, rows * rowElements, type);
+        } else {
+            for (int r = 0; r < rows; r++) {
+                Mat row = m.row(r);
+                try {
+                    writeElements(row, 0, rowElements, type);
+                } finally {
+                    row.release();
+                }
+            }
+        }
+    }
+
+    /* Writes count channel values of the continuous Mat m starting at element offset first */
+    private void writeElements(Mat m, int first, int count, int type) throws IOException {
+        int channels = CvType.channels(type);
+        int step = CHUNK_ELEMENTS / channels * channels;
+        int cols = m.cols();
+        for (int done = 0; done < count; ) {
+            int n = Math.min(step, count - done);
+            // ranged get() addresses by row and column, chunks start at a pixel boundary
+            int pixel = (first + done) / channels;
+            int row = pixel / cols;
+            int col = pixel % cols;
+            switch (CvType.depth(type)) {
+                case CvType.CV_8U:
+                case CvType.CV_8S:
+                    byte[] b = mScratch.bytes(n);
+                    m.get(row, col, b, 0, n);
+                    mBuffer.put(b, 0, n);
+                    break;
+                case CvType.CV_16U:
+                case CvType.CV_16S:
+                    short[] s = mScratch.shorts(n);
+                    m.get(row, col, s, 0, n);
+                    mBuffer.asShortBuffer().put(s, 0, n);
+                    mBuffer.position(mBuffer.position() + n * 2);
+                    break;
+                case CvType.CV_32S:
+                    int[] i = mScratch.ints(n);
+                    m.get(row, col, i, 0, n);
+                    mBuffer.asIntBuffer().put(i, 0, n);
+                    mBuffer.position(mBuffer.position() + n * 4);
+                    break;
+                case CvType.CV_32F:
+                    float[] f = mScratch.floats(n);
+                    m.get(row, col, f, 0, n);
+                    mBuffer.asFloatBuffer().put(f, 0, n);
+                    mBuffer.position(mBuffer.position() + n * 4);
+                    break;
+                case CvType.CV_64F:
+                    double[] d = mScratch.doubles(n);
+                    m.get(row, col, d, 0, n);
+                    mBuffer.asDoubleBuffer().put(d, 0, n);
+                    mBuffer.position(mBuffer.position() + n * 8);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unsupported Mat type " + CvType.typeToString(type));
+            }
+            drain();
+            done += n;
+        }
+    }
+
+    private void drain() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining())
+            mChannel.write(mBuffer);
+        mBuffer.clear();
+    }
+
+    /**
+     * Closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /* Grow-only arrays the Mat data goes through */
+    static class Scratch {
+        private byte[] mBytes = new byte[0];
+        private short[] mShorts = new short[0];
+        private int[] mInts = new int[0];
+        private float[] mFloats = new float[0];
+        private double[] mDoubles = new double[0];
+
+        byte[] bytes(int n) {
+            if (mBytes.length < n)
+                mBytes = new byte[n];
+            return mBytes;
+        }
+
+        short[] shorts(int n) {
+            if (mShorts.length < n)
+                mShorts = new short[n];
+            return mShorts;
+        }
+
+        int[] ints(int n) {
+            if (mInts.length < n)
+                mInts = new int[n];
+            return mInts;
+        }
+
+        float[] floats(int n) {
+            if (mFloats.length < n)
+                mFloats = new float[n];
+            return mFloats;
+        }
+
+        double[] doubles(int n) {
+            if (mDoubles.length < n)
+                mDoubles = new double[n];
+            return mDoubles;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.opencv.core;
+
+import java.util.List;
+
+import org.opencv.features2d.DMatch;
+
+/**
+ * Reusable structure-of-arrays view of the matches stored in a MatOfDMatch.
+ * The matches are kept in one packed float array with the MatOfDMatch layout
+ * (queryIdx, trainIdx, imgIdx, distance) and accessed by index, so no DMatch
+ * objects are created. The array only grows, so repeated loads do not allocate.
+ */
+public class DMatchBuffer {
+    // 32FC4
+    public static final int CHANNELS = 4;
+
+    private float[] mData;
+    private int mCount;
+
+    public DMatchBuffer() {
+        this(0);
+    }
+
+    public DMatchBuffer(int capacity) {
+        mData = new float[capacity * CHANNELS];
+    }
+
+    /**
+     * Replaces the content of the buffer with the matches of m.
+     * @return this buffer
+     */
+    public DMatchBuffer load(MatOfDMatch m) {
+        mCount = 0;
+        return append(m);
+    }
+
+    /**
+     * Replaces the content of the buffer with the concatenation of the matches in ms,
+     * e.g. the per-query result of DescriptorMatcher.knnMatch().
+     * @return this buffer
+     */
+    public DMatchBuffer load(List<MatOfDMatch> ms) {
+        mCount = 0;
+        for (int i = 0; i < ms.size(); i++)
+            append(ms.get(i));
+        return this;
+    }
+
+    /**
+     * Appends the matches of m to the buffer.
+     * @return this buffer
+     */
+    public DMatchBuffer append(MatOfDMatch m) {
+        int num = (int) m.total();
+        ensureCapacity(mCount + num);
+        if (num > 0)
+            m.get(0, 0, mData, mCount * CHANNELS, num * CHANNELS);
+        mCount += num;
+        return this;
+    }
+
+    /**
+     * Writes the content of the buffer to m, reallocating it only if the size changed.
+     */
+    public void store(MatOfDMatch m) {
+        if (mCount == 0) {
+            m.release();
+            return;
+        }
+        m.alloc(mCount);
+        m.put(0, 0, mData, 0, mCount * CHANNELS);
+    }
+
+    public void clear() {
+        mCount = 0;
+    }
+
+    public void add(int queryIdx, int trainIdx, int imgIdx, float distance) {
+        ensureCapacity(mCount + 1);
+        int o = mCount * CHANNELS;
+        mData[o] = queryIdx;
+        mData[o + 1] = trainIdx;
+        mData[o + 2] = imgIdx;
+        mData[o + 3] = distance;
+        mCount++;
+    }
+
+    public int count() {
+        return mCount;
+    }
+
+    public int queryIdx(int i) {
+        return (int) mData[i * CHANNELS];
+    }
+
+    public int trainIdx(int i) {
+        return (int) mData[i * CHANNELS + 1];
+    }
+
+    public int imgIdx(int i) {
+        return (int) mData[i * CHANNELS + 2];
+    }
+
+    public float distance(int i) {
+        return mData[i * CHANNELS + 3];
+    }
+
+    /**
+     * Copies the i-th match into m, so a single DMatch can be reused while iterating.
+     * @return m
+     */
+    public DMatch get(int i, DMatch m) {
+        int o = i * CHANNELS;
+        m.queryIdx = (int) mData[o];
+        m.trainIdx = (int) mData[o + 1];
+        m.imgIdx = (int) mData[o + 2];
+        m.distance = mData[o + 3];
+        return m;
+    }
+
+    /**
+     * @return the backing array, count() * CHANNELS values are valid
+     */
+    public float[] data() {
+        return mData;
+    }
+
+    private void ensureCapacity(int num) {
+        if (mData.length < num * CHANNELS) {
+            float[] data = new float[Math.max(num, mData.length / CHANNELS * 2) * CHANNELS];
+            System.arraycopy(mData, 0, data, 0, mCount * CHANNELS);
+            mData = data;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.opencv.core;
+
+import org.opencv.features2d.KeyPoint;
+
+/**
+ * Reusable structure-of-arrays view of the keypoints stored in a MatOfKeyPoint.
+ * The keypoints are kept in one packed float array with the MatOfKeyPoint layout
+ * (x, y, size, angle, response, octave, class_id), read with a single native call and
+ * accessed by index, so no KeyPoint or Point objects are created. The array only grows,
+ * so loading frames of similar size does not allocate.
+ */
+public class KeyPointBuffer {
+    // 32FC7
+    public static final int CHANNELS = 7;
+
+    private float[] mData;
+    private int mCount;
+
+    public KeyPointBuffer() {
+        this(0);
+    }
+
+    public KeyPointBuffer(int capacity) {
+        mData = new float[capacity * CHANNELS];
+    }
+
+    /**
+     * Replaces the content of the buffer with the keypoints of m.
+     * @return this buffer
+     */
+    public KeyPointBuffer load(MatOfKeyPoint m) {
+        int num = (int) m.total();
+        ensureCapacity(num);
+        if (num > 0)
+            m.get(0, 0, mData, 0, num * CHANNELS);
+        mCount = num;
+        return this;
+    }
+
+    /**
+     * Writes the content of the buffer to m, reallocating it only if the size changed.
+     */
+    public void store(MatOfKeyPoint m) {
+        if (mCount == 0) {
+            m.release();
+            return;
+        }
+        m.alloc(mCount);
+        m.put(0, 0, mData, 0, mCount * CHANNELS);
+    }
+
+    public void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Keeps the first count keypoints.
+     */
+    public void truncate(int count) {
+        if (count < 0 || count > mCount)
+            throw new IndexOutOfBoundsException("count " + count + " not in [0, " + mCount + "]");
+        mCount = count;
+    }
+
+    public void add(float x, float y, float size, float angle, float response, int octave, int classId) {
+        ensureCapacity(mCount + 1);
+        int o = mCount * CHANNELS;
+        mData[o] = x;
+        mData[o + 1] = y;
+        mData[o + 2] = size;
+        mData[o + 3] = angle;
+        mData[o + 4] = response;
+        mData[o + 5] = octave;
+        mData[o + 6] = classId;
+        mCount++;
+    }
+
+    public int count() {
+        return mCount;
+    }
+
+    public float x(int i) {
+        return mData[i * CHANNELS];
+    }
+
+    public float y(int i) {
+        return mData[i * CHANNELS + 1];
+    }
+
+    public float size(int i) {
+        return mData[i * CHANNELS + 2];
+    }
+
+    public float angle(int i) {
+        return mData[i * CHANNELS + 3];
+    }
+
+    public float response(int i) {
+        return mData[i * CHANNELS + 4];
+    }
+
+    public int octave(int i) {
+        return (int) mData[i * CHANNELS + 5];
+    }
+
+    public int classId(int i) {
+        return (int) mData[i * CHANNELS + 6];
+    }
+
+    /**
+     * Copies the i-th keypoint into kp, so a single KeyPoint can be reused while iterating.
+     * @return kp
+     */
+    public KeyPoint get(int i, KeyPoint kp) {
+        int o = i * CHANNELS;
+        kp.pt.x = mData[o];
+        kp.pt.y = mData[o + 1];
+        kp.size = mData[o + 2];
+        kp.angle = mData[o + 3];
+        kp.response = mData[o + 4];
+        kp.octave = (int) mData[o + 5];
+        kp.class_id = (int) mData[o + 6];
+        return kp;
+    }
+
+    /**
+     * @return the backing array, count() * CHANNELS values are valid
+     */
+    public float[] data() {
+        return mData;
+    }
+
+    private void ensureCapacity(int num) {
+        if (mData.length < num * CHANNELS) {
+            float[] data = new float[Math.max(num, mData.length / CHANNELS * 2) * CHANNELS];
+            System.arraycopy(mData, 0, data, 0, mCount * CHANNELS);
+            mData = data;
+        }
+    }
+}
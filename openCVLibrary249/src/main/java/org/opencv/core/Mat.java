@@ -1,5 +1,7 @@
 package org.opencv.core;
 
+import java.io.Closeable;
+
 // C++: class Mat
 /**
  * <p>OpenCV C++ n-dimensional dense array class</p>
@@ -414,10 +416,16 @@ package org.opencv.core;
  *
  * @see <a href="http://docs.opencv.org/modules/core/doc/basic_structures.html#mat">org.opencv.core.Mat</a>
  */
-public class Mat {
+public class Mat implements Closeable {
 
     public final long nativeObj;
 
+    private final Throwable mAllocationSite = MatLeakDetector.captureAllocationSite();
+
+    {
+        MatScope.track(this);
+    }
+
     public Mat(long addr)
     {
         if (addr == 0)
@@ -2470,8 +2478,19 @@ public class Mat {
         return retVal;
     }
 
+    /**
+     * Releases the matrix data right away, so Mats can be used with try-with-resources.
+     * The object stays usable as an empty matrix until it is garbage collected.
+     */
+    public void close() {
+        release();
+    }
+
     @Override
     protected void finalize() throws Throwable {
+        if (nativeObj != 0 && !n_empty(nativeObj))
+            MatLeakDetector.reportFinalized(n_rows(nativeObj), n_cols(nativeObj), n_type(nativeObj),
+                    n_total(nativeObj) * n_elemSize(nativeObj), mAllocationSite);
         n_delete(nativeObj);
         super.finalize();
     }
@@ -2631,6 +2650,326 @@ public class Mat {
         return nGet(nativeObj, row, col);
     }
 
+    /**
+     * Writes length elements of data starting at offset, without requiring a dedicated array.
+     * When offset is 0 the array is passed to native code directly, so a larger scratch array
+     * can be reused across calls; otherwise the range goes through a per-thread scratch copy.
+     * @return number of bytes written
+     */
+    public int put(int row, int col, byte[] data, int offset, int length) {
+        int t = type();
+        checkRange(t, data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_8U || CvType.depth(t) == CvType.CV_8S) {
+            if (offset == 0)
+                return nPutB(nativeObj, row, col, length, data);
+            byte[] buff = scratchByte(length);
+            System.arraycopy(data, offset, buff, 0, length);
+            return nPutB(nativeObj, row, col, length, buff);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    public int put(int row, int col, short[] data, int offset, int length) {
+        int t = type();
+        checkRange(t, data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_16U || CvType.depth(t) == CvType.CV_16S) {
+            if (offset == 0)
+                return nPutS(nativeObj, row, col, length, data);
+            short[] buff = scratchShort(length);
+            System.arraycopy(data, offset, buff, 0, length);
+            return nPutS(nativeObj, row, col, length, buff);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    public int put(int row, int col, int[] data, int offset, int length) {
+        int t = type();
+        checkRange(t, data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_32S) {
+            if (offset == 0)
+                return nPutI(nativeObj, row, col, length, data);
+            int[] buff = scratchInt(length);
+            System.arraycopy(data, offset, buff, 0, length);
+            return nPutI(nativeObj, row, col, length, buff);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    public int put(int row, int col, float[] data, int offset, int length) {
+        int t = type();
+        checkRange(t, data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_32F) {
+            if (offset == 0)
+                return nPutF(nativeObj, row, col, length, data);
+            float[] buff = scratchFloat(length);
+            System.arraycopy(data, offset, buff, 0, length);
+            return nPutF(nativeObj, row, col, length, buff);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    public int put(int row, int col, double[] data, int offset, int length) {
+        int t = type();
+        checkRange(t, data == null ? -1 : data.length, offset, length);
+        if (offset == 0)
+            return nPutD(nativeObj, row, col, length, data);
+        double[] buff = scratchDouble(length);
+        System.arraycopy(data, offset, buff, 0, length);
+        return nPutD(nativeObj, row, col, length, buff);
+    }
+
+    /**
+     * Reads length elements into data starting at offset, see put(int, int, byte[], int, int).
+     * @return number of bytes read
+     */
+    public int get(int row, int col, byte[] data, int offset, int length) {
+        int t = type();
+        checkRange(t, data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_8U || CvType.depth(t) == CvType.CV_8S) {
+            if (offset == 0)
+                return nGetB(nativeObj, row, col, length, data);
+            byte[] buff = scratchByte(length);
+            int res = nGetB(nativeObj, row, col, length, buff);
+            System.arraycopy(buff, 0, data, offset, length);
+            return res;
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    public int get(int row, int col, short[] data, int offset, int length) {
+        int t = type();
+        checkRange(t, data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_16U || CvType.depth(t) == CvType.CV_16S) {
+            if (offset == 0)
+                return nGetS(nativeObj, row, col, length, data);
+            short[] buff = scratchShort(length);
+            int res = nGetS(nativeObj, row, col, length, buff);
+            System.arraycopy(buff, 0, data, offset, length);
+            return res;
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    public int get(int row, int col, int[] data, int offset, int length) {
+        int t = type();
+        checkRange(t, data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_32S) {
+            if (offset == 0)
+                return nGetI(nativeObj, row, col, length, data);
+            int[] buff = scratchInt(length);
+            int res = nGetI(nativeObj, row, col, length, buff);
+            System.arraycopy(buff, 0, data, offset, length);
+            return res;
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    public int get(int row, int col, float[] data, int offset, int length) {
+        int t = type();
+        checkRange(t, data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_32F) {
+            if (offset == 0)
+                return nGetF(nativeObj, row, col, length, data);
+            float[] buff = scratchFloat(length);
+            int res = nGetF(nativeObj, row, col, length, buff);
+            System.arraycopy(buff, 0, data, offset, length);
+            return res;
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    public int get(int row, int col, double[] data, int offset, int length) {
+        int t = type();
+        checkRange(t, data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_64F) {
+            if (offset == 0)
+                return nGetD(nativeObj, row, col, length, data);
+            double[] buff = scratchDouble(length);
+            int res = nGetD(nativeObj, row, col, length, buff);
+            System.arraycopy(buff, 0, data, offset, length);
+            return res;
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    /**
+     * Writes the remaining elements of the buffer and advances its position by the number of
+     * elements written. Heap buffers are passed to native code through their backing array,
+     * direct buffers are transferred in chunks through a per-thread scratch array.
+     * @return number of bytes written
+     */
+    public int put(int row, int col, java.nio.ByteBuffer data) {
+        if (data == null)
+            throw new java.lang.UnsupportedOperationException("Provided buffer is null");
+        int length = data.remaining();
+        if (data.hasArray()) {
+            int res = put(row, col, data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.position() + res);
+            return res;
+        }
+        byte[] buff = scratchByte(length);
+        int start = data.position();
+        data.get(buff, 0, length);
+        int res = put(row, col, buff, 0, length);
+        data.position(start + res);
+        return res;
+    }
+
+    public int put(int row, int col, java.nio.IntBuffer data) {
+        if (data == null)
+            throw new java.lang.UnsupportedOperationException("Provided buffer is null");
+        int length = data.remaining();
+        if (data.hasArray()) {
+            int res = put(row, col, data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.position() + res / 4);
+            return res;
+        }
+        int[] buff = scratchInt(length);
+        int start = data.position();
+        data.get(buff, 0, length);
+        int res = put(row, col, buff, 0, length);
+        data.position(start + res / 4);
+        return res;
+    }
+
+    public int put(int row, int col, java.nio.FloatBuffer data) {
+        if (data == null)
+            throw new java.lang.UnsupportedOperationException("Provided buffer is null");
+        int length = data.remaining();
+        if (data.hasArray()) {
+            int res = put(row, col, data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.position() + res / 4);
+            return res;
+        }
+        float[] buff = scratchFloat(length);
+        int start = data.position();
+        data.get(buff, 0, length);
+        int res = put(row, col, buff, 0, length);
+        data.position(start + res / 4);
+        return res;
+    }
+
+    /**
+     * Fills the remaining elements of the buffer and advances its position by the number of
+     * elements read, see put(int, int, java.nio.ByteBuffer).
+     * @return number of bytes read
+     */
+    public int get(int row, int col, java.nio.ByteBuffer data) {
+        if (data == null)
+            throw new java.lang.UnsupportedOperationException("Provided buffer is null");
+        int length = data.remaining();
+        if (data.hasArray()) {
+            int res = get(row, col, data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.position() + res);
+            return res;
+        }
+        byte[] buff = scratchByte(length);
+        int res = get(row, col, buff, 0, length);
+        data.put(buff, 0, res);
+        return res;
+    }
+
+    public int get(int row, int col, java.nio.IntBuffer data) {
+        if (data == null)
+            throw new java.lang.UnsupportedOperationException("Provided buffer is null");
+        int length = data.remaining();
+        if (data.hasArray()) {
+            int res = get(row, col, data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.position() + res / 4);
+            return res;
+        }
+        int[] buff = scratchInt(length);
+        int res = get(row, col, buff, 0, length);
+        data.put(buff, 0, res / 4);
+        return res;
+    }
+
+    public int get(int row, int col, java.nio.FloatBuffer data) {
+        if (data == null)
+            throw new java.lang.UnsupportedOperationException("Provided buffer is null");
+        int length = data.remaining();
+        if (data.hasArray()) {
+            int res = get(row, col, data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.position() + res / 4);
+            return res;
+        }
+        float[] buff = scratchFloat(length);
+        int res = get(row, col, buff, 0, length);
+        data.put(buff, 0, res / 4);
+        return res;
+    }
+
+    private static void checkRange(int t, int dataLength, int offset, int length) {
+        if (dataLength < 0)
+            throw new java.lang.UnsupportedOperationException("Provided data array is null");
+        if (offset < 0 || length < 0 || offset + length > dataLength)
+            throw new java.lang.IndexOutOfBoundsException(
+                    "Range [" + offset + ", " + offset + " + " + length + ") is out of bounds for length " + dataLength);
+        if (length % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + length +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ")");
+    }
+
+    /* Grow-only per-thread scratch arrays for ranged and direct buffer transfers */
+    private static final ThreadLocal<Object[]> sScratch = new ThreadLocal<Object[]>() {
+        @Override
+        protected Object[] initialValue() {
+            return new Object[5];
+        }
+    };
+
+    private static byte[] scratchByte(int length) {
+        Object[] scratch = sScratch.get();
+        byte[] buff = (byte[]) scratch[0];
+        if (buff == null || buff.length < length) {
+            buff = new byte[length];
+            scratch[0] = buff;
+        }
+        return buff;
+    }
+
+    private static short[] scratchShort(int length) {
+        Object[] scratch = sScratch.get();
+        short[] buff = (short[]) scratch[1];
+        if (buff == null || buff.length < length) {
+            buff = new short[length];
+            scratch[1] = buff;
+        }
+        return buff;
+    }
+
+    private static int[] scratchInt(int length) {
+        Object[] scratch = sScratch.get();
+        int[] buff = (int[]) scratch[2];
+        if (buff == null || buff.length < length) {
+            buff = new int[length];
+            scratch[2] = buff;
+        }
+        return buff;
+    }
+
+    private static float[] scratchFloat(int length) {
+        Object[] scratch = sScratch.get();
+        float[] buff = (float[]) scratch[3];
+        if (buff == null || buff.length < length) {
+            buff = new float[length];
+            scratch[3] = buff;
+        }
+        return buff;
+    }
+
+    private static double[] scratchDouble(int length) {
+        Object[] scratch = sScratch.get();
+        double[] buff = (double[]) scratch[4];
+        if (buff == null || buff.length < length) {
+            buff = new double[length];
+            scratch[4] = buff;
+        }
+        return buff;
+    }
+
     public int height() {
         return rows();
     }
@@ -0,0 +1,76 @@
+package org.opencv.core;
+
+/**
+ * Reports Mats whose native data was still allocated when the garbage collector
+ * finalized them, i.e. Mats that were neither released, closed nor owned by a MatScope.
+ * Counting is always on. Capturing allocation sites costs a stack trace per Mat
+ * and is enabled with setEnabled(true), typically in debug builds only.
+ */
+public class MatLeakDetector {
+
+    public interface Reporter {
+        /**
+         * Invoked on the finalizer thread, must not block.
+         * @param description - size and type of the leaked Mat
+         * @param allocationSite - stack trace of the Mat creation, null when the detector was disabled at that time
+         */
+        public void onLeak(String description, Throwable allocationSite);
+    }
+
+    private static volatile boolean sEnabled;
+    private static volatile Reporter sReporter;
+    private static long sLeakCount;
+    private static long sLeakedBytes;
+
+    private MatLeakDetector() {
+    }
+
+    /**
+     * Enables allocation site capturing for the Mats created from now on.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setReporter(Reporter reporter) {
+        sReporter = reporter;
+    }
+
+    /**
+     * @return number of Mats reclaimed with their data still allocated
+     */
+    public static synchronized long getLeakCount() {
+        return sLeakCount;
+    }
+
+    /**
+     * @return total size of the data reclaimed by the finalizer, in bytes
+     */
+    public static synchronized long getLeakedBytes() {
+        return sLeakedBytes;
+    }
+
+    public static synchronized void reset() {
+        sLeakCount = 0;
+        sLeakedBytes = 0;
+    }
+
+    static Throwable captureAllocationSite() {
+        return sEnabled ? new Throwable("Mat allocated here") : null;
+    }
+
+    static void reportFinalized(int rows, int cols, int type, long bytes, Throwable allocationSite) {
+        synchronized (MatLeakDetector.class) {
+            sLeakCount++;
+            sLeakedBytes += bytes;
+        }
+        Reporter reporter = sReporter;
+        if (reporter != null)
+            reporter.onLeak("Mat [ " + rows + "*" + cols + "*" + CvType.typeToString(type) + " ] reclaimed by finalizer",
+                    allocationSite);
+    }
+}
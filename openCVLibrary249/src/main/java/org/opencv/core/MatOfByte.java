@@ -59,6 +59,34 @@ public class MatOfByte extends Mat {
         return a;
     }
 
+    /**
+     * Fills the Mat with the first count elements of a, without copying them to a dedicated array.
+     */
+    public void fromArray(byte[] a, int count) {
+        if(a==null || count<=0)
+            return;
+        if(count > a.length || count % _channels != 0)
+            throw new IllegalArgumentException("Invalid count " + count + " for an array of " + a.length);
+        alloc(count / _channels);
+        put(0, 0, a, 0, count);
+    }
+
+    /**
+     * Reads the elements into a if it is large enough, into a new array otherwise.
+     * @return the array holding the elements, only the first total()*channels() of them are valid
+     */
+    public byte[] toArray(byte[] a) {
+        int num = checkVector(_channels, _depth);
+        if(num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        if(a == null || a.length < num * _channels)
+            a = new byte[num * _channels];
+        if(num == 0)
+            return a;
+        get(0, 0, a, 0, num * _channels);
+        return a;
+    }
+
     public void fromList(List<Byte> lb) {
         if(lb==null || lb.size()==0)
             return;
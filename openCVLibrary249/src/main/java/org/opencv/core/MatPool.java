@@ -0,0 +1,203 @@
+package org.opencv.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pool of allocated Mats keyed by (rows, cols, type).
+ * acquire() hands out an idle Mat of the requested geometry if there is one and allocates
+ * a new one otherwise; recycle() returns a Mat to the pool instead of freeing its data.
+ * Idle Mats are kept under a byte budget, the least recently recycled ones are released first.
+ * Mats handed out by the pool are never tracked by a MatScope.
+ */
+public class MatPool {
+
+    public static final long DEFAULT_BUDGET_BYTES = 32L * 1024 * 1024;
+
+    private static MatPool sDefault;
+
+    private final HashMap<Long, ArrayList<Mat>> mIdle = new HashMap<Long, ArrayList<Mat>>();
+    /* Idle Mats in recycle order, the first entry is evicted first */
+    private final LinkedHashMap<Mat, Long> mLru = new LinkedHashMap<Mat, Long>();
+    private long mBudgetBytes;
+    private long mResidentBytes;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    public MatPool() {
+        this(DEFAULT_BUDGET_BYTES);
+    }
+
+    public MatPool(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * @return process wide pool with the default budget
+     */
+    public static synchronized MatPool getDefault() {
+        if (sDefault == null)
+            sDefault = new MatPool();
+        return sDefault;
+    }
+
+    /**
+     * Returns a Mat of the given geometry. Its content is undefined.
+     */
+    public Mat acquire(int rows, int cols, int type) {
+        Long key = key(rows, cols, type);
+        synchronized (this) {
+            ArrayList<Mat> idle = mIdle.get(key);
+            while (idle != null && !idle.isEmpty()) {
+                Mat m = idle.remove(idle.size() - 1);
+                mLru.remove(m);
+                mResidentBytes -= byteSize(rows, cols, type);
+                /* Someone released the data behind our back, drop it */
+                if (m.empty())
+                    continue;
+                mHits++;
+                return m;
+            }
+            mMisses++;
+        }
+
+        Mat m = new Mat(rows, cols, type);
+        MatScope scope = MatScope.current();
+        if (scope != null)
+            scope.detach(m);
+        return m;
+    }
+
+    public Mat acquire(Size size, int type) {
+        return acquire((int) size.height, (int) size.width, type);
+    }
+
+    /**
+     * Returns m to the pool. The geometry is taken from m itself, so a Mat reallocated by an
+     * OpenCV function is pooled under its new size. Submatrices and empty Mats are released.
+     */
+    public void recycle(Mat m) {
+        if (m == null)
+            return;
+        if (m.empty() || m.isSubmatrix() || !m.isContinuous()) {
+            m.release();
+            return;
+        }
+
+        int rows = m.rows();
+        int cols = m.cols();
+        int type = m.type();
+        long bytes = byteSize(rows, cols, type);
+        if (bytes > mBudgetBytes) {
+            m.release();
+            return;
+        }
+
+        MatScope scope = MatScope.current();
+        if (scope != null)
+            scope.detach(m);
+
+        Long key = key(rows, cols, type);
+        synchronized (this) {
+            if (mLru.containsKey(m))
+                return;
+            ArrayList<Mat> idle = mIdle.get(key);
+            if (idle == null) {
+                idle = new ArrayList<Mat>();
+                mIdle.put(key, idle);
+            }
+            idle.add(m);
+            mLru.put(m, key);
+            mResidentBytes += bytes;
+            trim(mBudgetBytes);
+        }
+    }
+
+    public synchronized void setBudget(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+        trim(mBudgetBytes);
+    }
+
+    public synchronized long getBudget() {
+        return mBudgetBytes;
+    }
+
+    /**
+     * Releases every idle Mat.
+     */
+    public synchronized void clear() {
+        trim(0);
+    }
+
+    /**
+     * @return bytes held by idle Mats
+     */
+    public synchronized long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * @return share of acquire() calls served from the pool, 0 if there were none
+     */
+    public synchronized double getHitRate() {
+        long total = mHits + mMisses;
+        return total == 0 ? 0 : (double) mHits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MatPool [ resident=" + mResidentBytes + "/" + mBudgetBytes + " bytes, idle=" + mLru.size() +
+                ", hits=" + mHits + ", misses=" + mMisses + ", evictions=" + mEvictions + " ]";
+    }
+
+    /* Called when this lock is held */
+    private void trim(long budgetBytes) {
+        Iterator<Map.Entry<Mat, Long>> it = mLru.entrySet().iterator();
+        while (mResidentBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<Mat, Long> e = it.next();
+            Mat m = e.getKey();
+            it.remove();
+
+            ArrayList<Mat> idle = mIdle.get(e.getValue());
+            for (int i = 0; i < idle.size(); i++) {
+                if (idle.get(i) == m) {
+                    idle.remove(i);
+                    break;
+                }
+            }
+            if (idle.isEmpty())
+                mIdle.remove(e.getValue());
+
+            long key = e.getValue();
+            mResidentBytes -= byteSize((int) (key >>> 40), (int) ((key >>> 16) & 0xFFFFFF), (int) (key & 0xFFFF));
+            mEvictions++;
+            m.release();
+        }
+    }
+
+    private static Long key(int rows, int cols, int type) {
+        if (rows < 0 || cols < 0 || rows > 0xFFFFFF || cols > 0xFFFFFF)
+            throw new IllegalArgumentException("Unsupported Mat size " + rows + "x" + cols);
+        return Long.valueOf(((long) rows << 40) | ((long) cols << 16) | (type & 0xFFFF));
+    }
+
+    private static long byteSize(int rows, int cols, int type) {
+        return (long) rows * cols * CvType.ELEM_SIZE(type);
+    }
+}
@@ -0,0 +1,121 @@
+package org.opencv.core;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+
+/**
+ * Arena for short-lived Mats. While a scope is open, every Mat created on the same thread
+ * (including the Mat wrappers created by the Java API for native results) is tracked by it,
+ * and close() releases the data of all of them at once, instead of waiting for finalization.
+ * Scopes nest, a Mat belongs to the innermost scope open on its thread.
+ *
+ * <pre>
+ * MatScope scope = MatScope.open();
+ * try {
+ *     ... per-frame processing ...
+ *     return scope.detach(result);
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ */
+public class MatScope implements Closeable {
+
+    private static final ThreadLocal<MatScope> sCurrent = new ThreadLocal<MatScope>();
+    /* Number of open scopes on all threads, lets track() skip the thread local lookup when zero */
+    private static volatile int sOpenScopes;
+
+    private final MatScope mParent;
+    private final Thread mOwner;
+    private final ArrayList<Mat> mMats = new ArrayList<Mat>();
+    private boolean mClosed;
+
+    private MatScope(MatScope parent) {
+        mParent = parent;
+        mOwner = Thread.currentThread();
+    }
+
+    /**
+     * Opens a new scope on the calling thread, nested into the current one if any.
+     */
+    public static MatScope open() {
+        MatScope scope = new MatScope(sCurrent.get());
+        sCurrent.set(scope);
+        synchronized (MatScope.class) {
+            sOpenScopes++;
+        }
+        return scope;
+    }
+
+    /**
+     * @return the innermost open scope of the calling thread or null
+     */
+    public static MatScope current() {
+        return sOpenScopes == 0 ? null : sCurrent.get();
+    }
+
+    static void track(Mat m) {
+        if (sOpenScopes == 0)
+            return;
+        MatScope scope = sCurrent.get();
+        if (scope != null)
+            scope.mMats.add(m);
+    }
+
+    /**
+     * Adds a Mat created outside of the scope, so it is released with it.
+     * @return m
+     */
+    public <T extends Mat> T attach(T m) {
+        mMats.add(m);
+        return m;
+    }
+
+    /**
+     * Removes m from the scope, so it survives close(), e.g. a result returned to the caller.
+     * @return m
+     */
+    public <T extends Mat> T detach(T m) {
+        for (int i = mMats.size() - 1; i >= 0; i--) {
+            if (mMats.get(i) == m) {
+                mMats.remove(i);
+                break;
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @return number of Mats currently tracked by the scope
+     */
+    public int size() {
+        return mMats.size();
+    }
+
+    /**
+     * Releases every tracked Mat and makes the parent scope current again.
+     * Must be called on the thread that opened the scope, scopes must be closed in reverse order.
+     */
+    public void close() {
+        if (mClosed)
+            return;
+        if (Thread.currentThread() != mOwner)
+            throw new IllegalStateException("MatScope must be closed on the thread that opened it");
+        if (sCurrent.get() != this)
+            throw new IllegalStateException("Nested MatScope is still open");
+
+        mClosed = true;
+        sCurrent.set(mParent);
+        synchronized (MatScope.class) {
+            sOpenScopes--;
+        }
+
+        for (int i = mMats.size() - 1; i >= 0; i--) {
+            Mat m = mMats.get(i);
+            /* nativeObj is 0 when the constructor failed */
+            if (m.nativeObj != 0)
+                m.release();
+        }
+        mMats.clear();
+    }
+}
@@ -0,0 +1,473 @@
+package org.opencv.features2d;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.opencv.core.CvType;
+import org.opencv.core.DMatchBuffer;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+
+/**
+ * Base of the Java matchers for binary descriptors (ORB, BRIEF, BRISK, FREAK).
+ * Keeps the train collection packed into 64 bit words, one long[] for all images, converts
+ * queries and results and splits the queries across the threads of an ExecutorService.
+ * Subclasses only implement the search of one range of queries.
+ * The train collection follows the DescriptorMatcher contract: add() appends one image per Mat,
+ * its index is the imgIdx of the matches. The matchers are not thread safe.
+ */
+public abstract class BinaryDescriptorMatcher {
+
+    /* Below this number of queries per thread the scan runs on the calling thread */
+    private static final int MIN_QUERIES_PER_TASK = 64;
+
+    private static ExecutorService sExecutor;
+
+    /* Grow-only per-thread array the public pack() reads the descriptor bytes into */
+    private static final ThreadLocal<byte[][]> sPackBytes = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[][] { new byte[0] };
+        }
+    };
+
+    private final ExecutorService mExecutor;
+    private final int mThreads;
+
+    private int mDescriptorBytes = -1;
+    /* Words per descriptor, mTrain holds mTrainCount descriptors of mWords words each */
+    protected int mWords;
+    protected long[] mTrain = new long[0];
+    protected int mTrainCount;
+    private int[] mImgIdx = new int[0];
+    private int[] mTrainIdx = new int[0];
+    private int mImageCount;
+
+    private long[] mQuery = new long[0];
+    private byte[] mBytes = new byte[0];
+    private int[] mResultTrain = new int[0];
+    private int[] mResultDistance = new int[0];
+
+    /**
+     * @param executor - pool the scan is split across, null runs every scan on the calling thread
+     * @param threads - number of tasks a scan is split into
+     */
+    protected BinaryDescriptorMatcher(ExecutorService executor, int threads) {
+        mExecutor = executor;
+        mThreads = executor == null ? 1 : Math.max(1, threads);
+    }
+
+    /**
+     * @return process wide pool with one daemon thread per core
+     */
+    protected static synchronized ExecutorService sharedExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private int mCount;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BinaryDescriptorMatcher-" + mCount++);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * @return number of 64 bit words a descriptor of the given length is packed into
+     */
+    public static int wordsPerDescriptor(int descriptorBytes) {
+        return (descriptorBytes + 7) / 8;
+    }
+
+    /**
+     * Packs the rows of a CV_8UC1 descriptor Mat into words, byte i of a row going to bits
+     * 8*(i%8) of word i/8. A row ending in the middle of a word is padded with zeros.
+     * The bytes are read with a single native call into an array kept per thread.
+     * @return out if it is large enough, a new array otherwise
+     */
+    public static long[] pack(Mat descriptors, long[] out) {
+        byte[][] holder = sPackBytes.get();
+        int length = descriptors.rows() * descriptors.cols();
+        if (holder[0].length < length)
+            holder[0] = new byte[length];
+        return pack(descriptors, out, holder[0]);
+    }
+
+    private static long[] pack(Mat descriptors, long[] out, byte[] bytes) {
+        if (descriptors.type() != CvType.CV_8UC1)
+            throw new IllegalArgumentException("Binary descriptors must be of CV_8UC1 type\n" + descriptors);
+        int rows = descriptors.rows();
+        int cols = descriptors.cols();
+        if (descriptors.isContinuous() && bytes.length >= rows * cols) {
+            descriptors.get(0, 0, bytes, 0, rows * cols);
+            return pack(bytes, 0, rows, cols, out);
+        }
+        int words = wordsPerDescriptor(cols);
+        if (out == null || out.length < rows * words)
+            out = new long[rows * words];
+        byte[] row = bytes.length >= cols ? bytes : new byte[cols];
+        for (int r = 0; r < rows; r++) {
+            descriptors.get(r, 0, row, 0, cols);
+            packRow(row, 0, cols, out, r * words);
+        }
+        return out;
+    }
+
+    /**
+     * Same as pack(Mat, long[]) for rows descriptors of descriptorBytes bytes each stored one
+     * after the other in bytes, starting at offset.
+     */
+    public static long[] pack(byte[] bytes, int offset, int rows, int descriptorBytes, long[] out) {
+        int words = wordsPerDescriptor(descriptorBytes);
+        if (out == null || out.length < rows * words)
+            out = new long[rows * words];
+        for (int r = 0; r < rows; r++)
+            packRow(bytes, offset + r * descriptorBytes, descriptorBytes, out, r * words);
+        return out;
+    }
+
+    private static void packRow(byte[] src, int srcOffset, int length, long[] dst, int dstOffset) {
+        int words = wordsPerDescriptor(length);
+        for (int w = 0; w < words; w++) {
+            long v = 0;
+            int end = Math.min(8, length - w * 8);
+            for (int b = 0; b < end; b++)
+                v |= (src[srcOffset + w * 8 + b] & 0xFFL) << (8 * b);
+            dst[dstOffset + w] = v;
+        }
+    }
+
+    /**
+     * Adds one train image per Mat, every Mat holds one CV_8UC1 descriptor per row.
+     */
+    public void add(List<Mat> descriptors) {
+        for (int i = 0; i < descriptors.size(); i++)
+            add(descriptors.get(i));
+    }
+
+    /**
+     * Adds the descriptors of one train image.
+     * @return imgIdx of the image
+     */
+    public int add(Mat descriptors) {
+        if (descriptors.empty()) {
+            return mImageCount++;
+        }
+        if (descriptors.type() != CvType.CV_8UC1)
+            throw new IllegalArgumentException("Binary descriptors must be of CV_8UC1 type\n" + descriptors);
+        int rows = descriptors.rows();
+        int cols = descriptors.cols();
+        ensureBytes(rows * cols);
+        return add(pack(descriptors, null, mBytes), rows, cols);
+    }
+
+    /**
+     * Adds the descriptors of one train image, already packed by pack() or by a Java extractor.
+     * @param packed - count descriptors of wordsPerDescriptor(descriptorBytes) words each
+     * @return imgIdx of the image
+     */
+    public int add(long[] packed, int count, int descriptorBytes) {
+        if (count > 0) {
+            setDescriptorBytes(descriptorBytes);
+            if (packed.length < count * mWords)
+                throw new IllegalArgumentException("packed holds less than " + count + " descriptors");
+            ensureTrainCapacity(mTrainCount + count);
+            System.arraycopy(packed, 0, mTrain, mTrainCount * mWords, count * mWords);
+            for (int r = 0; r < count; r++) {
+                mImgIdx[mTrainCount + r] = mImageCount;
+                mTrainIdx[mTrainCount + r] = r;
+            }
+            int first = mTrainCount;
+            mTrainCount += count;
+            onAdded(first, count);
+        }
+        return mImageCount++;
+    }
+
+    private void setDescriptorBytes(int descriptorBytes) {
+        if (mDescriptorBytes == -1) {
+            mDescriptorBytes = descriptorBytes;
+            mWords = wordsPerDescriptor(descriptorBytes);
+            onDescriptorSize(descriptorBytes);
+        } else if (mDescriptorBytes != descriptorBytes) {
+            throw new IllegalArgumentException("Descriptors of " + descriptorBytes +
+                    " bytes do not match the train descriptors of " + mDescriptorBytes + " bytes");
+        }
+    }
+
+    private void ensureBytes(int length) {
+        if (mBytes.length < length)
+            mBytes = new byte[length];
+    }
+
+    private void ensureTrainCapacity(int count) {
+        if (mImgIdx.length >= count && mTrain.length >= count * mWords)
+            return;
+        int capacity = Math.max(count, mImgIdx.length * 3 / 2 + 16);
+        long[] train = new long[capacity * mWords];
+        System.arraycopy(mTrain, 0, train, 0, mTrainCount * mWords);
+        mTrain = train;
+        int[] imgIdx = new int[capacity];
+        System.arraycopy(mImgIdx, 0, imgIdx, 0, mTrainCount);
+        mImgIdx = imgIdx;
+        int[] trainIdx = new int[capacity];
+        System.arraycopy(mTrainIdx, 0, trainIdx, 0, mTrainCount);
+        mTrainIdx = trainIdx;
+    }
+
+    /**
+     * Called once the length of the train descriptors is known, before the first onAdded().
+     */
+    protected void onDescriptorSize(int descriptorBytes) {
+    }
+
+    /**
+     * Called after train rows [first, first + count) were appended to mTrain.
+     */
+    protected void onAdded(int first, int count) {
+    }
+
+    /**
+     * Called after the train collection was cleared.
+     */
+    protected void onCleared() {
+    }
+
+    /**
+     * Kept for DescriptorMatcher compatibility, the collection is searchable as soon as it is added.
+     */
+    public void train() {
+    }
+
+    public void clear() {
+        mTrainCount = 0;
+        mImageCount = 0;
+        mDescriptorBytes = -1;
+        mWords = 0;
+        onCleared();
+    }
+
+    public int getDescriptorBytes() {
+        return mDescriptorBytes;
+    }
+
+    public boolean empty() {
+        return mTrainCount == 0;
+    }
+
+    /**
+     * @return total number of train descriptors
+     */
+    public int getTrainCount() {
+        return mTrainCount;
+    }
+
+    public int getImageCount() {
+        return mImageCount;
+    }
+
+    /**
+     * Finds the k nearest train descriptors of every query, like DescriptorMatcher.knnMatch().
+     * One MatOfDMatch per query row is added to matches, best match first.
+     */
+    public void knnMatch(Mat queryDescriptors, List<MatOfDMatch> matches, int k) {
+        matches.clear();
+        int queries = queryDescriptors.rows();
+        int found = knnMatchPacked(queryDescriptors, k);
+
+        float[] buff = new float[found * DMatchBuffer.CHANNELS];
+        for (int q = 0; q < queries; q++) {
+            MatOfDMatch m = new MatOfDMatch();
+            int n = fill(buff, 0, q, k, found);
+            if (n > 0) {
+                m.alloc(n);
+                m.put(0, 0, buff, 0, n * DMatchBuffer.CHANNELS);
+            }
+            matches.add(m);
+        }
+    }
+
+    /**
+     * Same as knnMatch(Mat, List, int) but writes the matches of all queries to out,
+     * query after query, at most k matches each. Nothing is allocated once
+     * the internal buffers and out have grown to the working size.
+     */
+    public void knnMatch(Mat queryDescriptors, int k, DMatchBuffer out) {
+        out.clear();
+        int queries = queryDescriptors.rows();
+        int found = knnMatchPacked(queryDescriptors, k);
+        for (int q = 0; q < queries; q++) {
+            for (int j = 0; j < found; j++) {
+                int t = mResultTrain[q * k + j];
+                if (t < 0)
+                    break;
+                out.add(q, mTrainIdx[t], mImgIdx[t], mResultDistance[q * k + j]);
+            }
+        }
+    }
+
+    /**
+     * Best match of every query, like DescriptorMatcher.match(). Queries without any
+     * candidate, which only happens with approximate matchers, have no match.
+     */
+    public void match(Mat queryDescriptors, MatOfDMatch matches) {
+        int queries = queryDescriptors.rows();
+        int found = knnMatchPacked(queryDescriptors, 1);
+        if (found == 0) {
+            matches.release();
+            return;
+        }
+        float[] buff = new float[queries * DMatchBuffer.CHANNELS];
+        int n = 0;
+        for (int q = 0; q < queries; q++)
+            n += fill(buff, n * DMatchBuffer.CHANNELS, q, 1, 1);
+        if (n == 0) {
+            matches.release();
+            return;
+        }
+        matches.alloc(n);
+        matches.put(0, 0, buff, 0, n * DMatchBuffer.CHANNELS);
+    }
+
+    /**
+     * Primitive form of knnMatch for packed queries. For query q and rank j the global train
+     * row goes to trainRow[q*k+j] (-1 when there are fewer than k train descriptors) and the
+     * distance to distance[q*k+j]. Use getImgIdx()/getTrainIdx() to resolve a train row.
+     * An empty matcher gives -1 rows and Integer.MAX_VALUE distances for every query.
+     */
+    public void knnMatch(long[] query, int queryCount, int k, int[] trainRow, int[] distance) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be positive, got " + k);
+        if (trainRow.length < queryCount * k || distance.length < queryCount * k)
+            throw new IllegalArgumentException("Result arrays hold less than " + queryCount * k + " matches");
+        if (mTrainCount == 0) {
+            // the subclasses have no index to search before the first descriptors are added
+            for (int q = 0; q < queryCount; q++)
+                clearResult(trainRow, distance, q, k);
+            return;
+        }
+        if (queryCount > 0 && query.length < queryCount * mWords)
+            throw new IllegalArgumentException("query holds less than " + queryCount + " descriptors");
+        scan(query, queryCount, k, trainRow, distance);
+    }
+
+    /**
+     * Copies the packed words of a train row to out, starting at offset.
+     */
+    public void getPackedDescriptor(int trainRow, long[] out, int offset) {
+        System.arraycopy(mTrain, trainRow * mWords, out, offset, mWords);
+    }
+
+    public int getImgIdx(int trainRow) {
+        return mImgIdx[trainRow];
+    }
+
+    public int getTrainIdx(int trainRow) {
+        return mTrainIdx[trainRow];
+    }
+
+    /* Packs the queries, scans and returns the number of valid matches per query */
+    private int knnMatchPacked(Mat queryDescriptors, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be positive, got " + k);
+        int queries = queryDescriptors.rows();
+        if (queries == 0 || queryDescriptors.empty() || mTrainCount == 0)
+            return 0;
+        if (queryDescriptors.cols() != mDescriptorBytes)
+            throw new IllegalArgumentException("Query descriptors of " + queryDescriptors.cols() +
+                    " bytes do not match the train descriptors of " + mDescriptorBytes + " bytes");
+
+        ensureBytes(queries * queryDescriptors.cols());
+        mQuery = pack(queryDescriptors, mQuery, mBytes);
+        if (mResultTrain.length < queries * k) {
+            mResultTrain = new int[queries * k];
+            mResultDistance = new int[queries * k];
+        }
+        scan(mQuery, queries, k, mResultTrain, mResultDistance);
+        return Math.min(k, mTrainCount);
+    }
+
+    /* Writes the matches of query q to buff and returns their number */
+    private int fill(float[] buff, int offset, int q, int k, int found) {
+        for (int j = 0; j < found; j++) {
+            int t = mResultTrain[q * k + j];
+            if (t < 0)
+                return j;
+            int o = offset + j * DMatchBuffer.CHANNELS;
+            buff[o] = q;
+            buff[o + 1] = mTrainIdx[t];
+            buff[o + 2] = mImgIdx[t];
+            buff[o + 3] = mResultDistance[q * k + j];
+        }
+        return found;
+    }
+
+    private void scan(final long[] query, int queryCount, final int k, final int[] trainRow, final int[] distance) {
+        int tasks = Math.min(mThreads, queryCount / MIN_QUERIES_PER_TASK);
+        if (tasks <= 1) {
+            scan(query, 0, queryCount, k, trainRow, distance);
+            return;
+        }
+
+        int chunk = (queryCount + tasks - 1) / tasks;
+        List<Callable<Void>> work = new ArrayList<Callable<Void>>(tasks);
+        for (int start = 0; start < queryCount; start += chunk) {
+            final int from = start;
+            final int to = Math.min(queryCount, start + chunk);
+            work.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    scan(query, from, to, k, trainRow, distance);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> f : mExecutor.invokeAll(work))
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while matching", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Matching failed", e.getCause());
+        }
+    }
+
+    /**
+     * Searches the k nearest train rows of queries [from, to). For query q the result goes to
+     * trainRow[q*k..q*k+k) and distance[q*k..q*k+k), sorted by distance, unused ranks are -1.
+     * Called concurrently for disjoint ranges.
+     */
+    protected abstract void scan(long[] query, int from, int to, int k, int[] trainRow, int[] distance);
+
+    /* Resets the top-k list of query q */
+    protected static void clearResult(int[] trainRow, int[] distance, int q, int k) {
+        for (int j = 0; j < k; j++) {
+            trainRow[q * k + j] = -1;
+            distance[q * k + j] = Integer.MAX_VALUE;
+        }
+    }
+
+    /* Inserts (t, d) into the sorted top-k list at offset r, returns the new k-th distance */
+    protected static int insert(int[] trainRow, int[] distance, int r, int k, int t, int d) {
+        int j = k - 1;
+        while (j > 0 && distance[r + j - 1] > d) {
+            distance[r + j] = distance[r + j - 1];
+            trainRow[r + j] = trainRow[r + j - 1];
+            j--;
+        }
+        distance[r + j] = d;
+        trainRow[r + j] = t;
+        return distance[r + k - 1];
+    }
+}
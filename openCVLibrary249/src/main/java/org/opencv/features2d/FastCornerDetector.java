@@ -0,0 +1,257 @@
+package org.opencv.features2d;
+
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.KeyPointBuffer;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+/**
+ * FAST-9/16 corner detector written in Java, following the native FeatureDetector.FAST.
+ * A pixel is a corner when 9 contiguous pixels of the 16 on the radius 3 circle around it are
+ * all brighter than it by more than the threshold, or all darker. The score is the largest
+ * threshold for which the pixel is still a corner and non-maximum suppression keeps the corners
+ * scoring more than their 8 neighbours, so the keypoints, their order and their responses are
+ * those of the native detector.
+ * Works on a gray byte[] with any row stride, so frames need not go through a Mat. Rows are
+ * scanned one after the other with a table lookup per circle pixel and only 3 rows of scores
+ * are kept for the suppression. Not thread safe, the buffers are reused across calls.
+ */
+public class FastCornerDetector {
+
+    public static final int DEFAULT_THRESHOLD = 10;
+
+    /* Circle radius, no corner is detected closer to the border */
+    private static final int BORDER = 3;
+    /* Circle points and contiguous points needed */
+    private static final int N = 16;
+    private static final int K = N / 2;
+    /* Circle offsets in x, y, clockwise from the top like in the native detector */
+    private static final int[] CIRCLE_X = { 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1 };
+    private static final int[] CIRCLE_Y = { 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1, 0, 1, 2, 3 };
+
+    /* Keypoint size the native detector reports */
+    private static final float KEYPOINT_SIZE = 7f;
+
+    private final int mThreshold;
+    private final boolean mNonmaxSuppression;
+    /* mTab[255 + p - v] is 1 if p is darker than v by more than the threshold, 2 if brighter */
+    private final byte[] mTab = new byte[511];
+
+    private int mStride = -1;
+    /* Offsets of the circle pixels, repeated so that any 9 contiguous ones are consecutive */
+    private final int[] mPixel = new int[N + K + 1];
+    private final int[] mDiff = new int[N + K + 1];
+
+    /* Scores of the last 3 rows and the corner columns of each, rows indexed modulo 3 */
+    private int[][] mScores = new int[3][0];
+    private int[][] mCorners = new int[3][0];
+    private final int[] mCornerCount = new int[3];
+    private final KeyPointBuffer mBuffer = new KeyPointBuffer();
+
+    public FastCornerDetector() {
+        this(DEFAULT_THRESHOLD, true);
+    }
+
+    /**
+     * @param threshold - intensity difference from the center, in [0, 255]
+     * @param nonmaxSuppression - keep only the local maxima of the score
+     */
+    public FastCornerDetector(int threshold, boolean nonmaxSuppression) {
+        if (threshold < 0 || threshold > 255)
+            throw new IllegalArgumentException("threshold must be in [0, 255], got " + threshold);
+        mThreshold = threshold;
+        mNonmaxSuppression = nonmaxSuppression;
+        for (int i = -255; i <= 255; i++)
+            mTab[i + 255] = (byte) (i < -threshold ? 1 : i > threshold ? 2 : 0);
+    }
+
+    public int getThreshold() {
+        return mThreshold;
+    }
+
+    /**
+     * Detects the corners of a CV_8UC1 image.
+     */
+    public void detect(Mat image, MatOfKeyPoint keypoints) {
+        if (image.type() != CvType.CV_8UC1)
+            throw new IllegalArgumentException("FAST needs a CV_8UC1 image\n" + image);
+        int width = image.cols();
+        int height = image.rows();
+        byte[] data = new byte[width * height];
+        if (data.length > 0)
+            image.get(0, 0, data);
+        detect(data, 0, width, height, width, keypoints);
+    }
+
+    /**
+     * @param offset - index of the top-left pixel in gray
+     * @param stride - distance between the first pixels of two rows, at least width
+     * @param keypoints - receives the corners in MatOfKeyPoint layout
+     */
+    public void detect(byte[] gray, int offset, int width, int height, int stride, MatOfKeyPoint keypoints) {
+        detect(gray, offset, width, height, stride, mBuffer);
+        mBuffer.store(keypoints);
+    }
+
+    /**
+     * Same as detect(byte[], int, int, int, int, MatOfKeyPoint) without any native call, the
+     * corners are appended to keypoints after clearing it, in row order.
+     */
+    public void detect(byte[] gray, int offset, int width, int height, int stride, KeyPointBuffer keypoints) {
+        if (stride < width || offset < 0 || (height > 0 && offset + (height - 1) * stride + width > gray.length))
+            throw new IllegalArgumentException("Image " + width + "x" + height + " with stride " + stride +
+                    " at " + offset + " does not fit in " + gray.length + " bytes");
+        keypoints.clear();
+        if (width <= 2 * BORDER || height <= 2 * BORDER)
+            return;
+        setStride(stride);
+        if (mScores[0].length < width) {
+            for (int r = 0; r < 3; r++) {
+                mScores[r] = new int[width];
+                mCorners[r] = new int[width];
+            }
+        }
+
+        // row y is scored while the corners of row y - 1 are checked against rows y - 2 and y
+        for (int y = BORDER; y <= height - BORDER; y++) {
+            int cur = y % 3;
+            if (y < height - BORDER)
+                scoreRow(gray, offset + y * stride, width, cur);
+            else
+                clearRow(width, cur);
+            if (y == BORDER)
+                continue;
+            int prev = (y - 1) % 3;
+            int prevPrev = (y - 2) % 3;
+            if (y == BORDER + 1)
+                clearRow(width, prevPrev);
+            emitRow(y - 1, prevPrev, prev, cur, keypoints);
+        }
+    }
+
+    private void setStride(int stride) {
+        if (stride == mStride)
+            return;
+        for (int k = 0; k < N; k++)
+            mPixel[k] = CIRCLE_X[k] + CIRCLE_Y[k] * stride;
+        for (int k = N; k < mPixel.length; k++)
+            mPixel[k] = mPixel[k - N];
+        mStride = stride;
+    }
+
+    private void clearRow(int width, int row) {
+        Arrays.fill(mScores[row], 0, width, 0);
+        mCornerCount[row] = 0;
+    }
+
+    /* Finds the corners of the row starting at rowStart, scores them into mScores[row] */
+    private void scoreRow(byte[] gray, int rowStart, int width, int row) {
+        final byte[] tab = mTab;
+        final int[] pixel = mPixel;
+        final int[] scores = mScores[row];
+        final int[] corners = mCorners[row];
+        final int threshold = mThreshold;
+        int count = 0;
+        Arrays.fill(scores, 0, width, 0);
+
+        for (int x = BORDER, p = rowStart + BORDER; x < width - BORDER; x++, p++) {
+            int t = 255 - (gray[p] & 0xff);
+
+            // opposite pairs first, 9 contiguous pixels always include one of each pair
+            int d = tab[t + (gray[p + pixel[0]] & 0xff)] | tab[t + (gray[p + pixel[8]] & 0xff)];
+            if (d == 0)
+                continue;
+            d &= tab[t + (gray[p + pixel[2]] & 0xff)] | tab[t + (gray[p + pixel[10]] & 0xff)];
+            d &= tab[t + (gray[p + pixel[4]] & 0xff)] | tab[t + (gray[p + pixel[12]] & 0xff)];
+            d &= tab[t + (gray[p + pixel[6]] & 0xff)] | tab[t + (gray[p + pixel[14]] & 0xff)];
+            if (d == 0)
+                continue;
+            d &= tab[t + (gray[p + pixel[1]] & 0xff)] | tab[t + (gray[p + pixel[9]] & 0xff)];
+            d &= tab[t + (gray[p + pixel[3]] & 0xff)] | tab[t + (gray[p + pixel[11]] & 0xff)];
+            d &= tab[t + (gray[p + pixel[5]] & 0xff)] | tab[t + (gray[p + pixel[13]] & 0xff)];
+            d &= tab[t + (gray[p + pixel[7]] & 0xff)] | tab[t + (gray[p + pixel[15]] & 0xff)];
+            if (d == 0)
+                continue;
+
+            int v = gray[p] & 0xff;
+            if (((d & 1) != 0 && hasArc(gray, p, v - threshold, true))
+                    || ((d & 2) != 0 && hasArc(gray, p, v + threshold, false))) {
+                corners[count++] = x;
+                scores[x] = mNonmaxSuppression ? cornerScore(gray, p, v) : 0;
+            }
+        }
+        mCornerCount[row] = count;
+    }
+
+    /* Whether K + 1 contiguous circle pixels are all below (darker) or above the bound */
+    private boolean hasArc(byte[] gray, int p, int bound, boolean darker) {
+        int run = 0;
+        for (int k = 0; k < N + K + 1; k++) {
+            int c = gray[p + mPixel[k]] & 0xff;
+            if (darker ? c < bound : c > bound) {
+                if (++run > K)
+                    return true;
+            } else {
+                run = 0;
+            }
+        }
+        return false;
+    }
+
+    /* Largest threshold for which the pixel is still a corner, as computed by the native detector */
+    private int cornerScore(byte[] gray, int p, int v) {
+        final int[] d = mDiff;
+        for (int k = 0; k < N + K + 1; k++)
+            d[k] = v - (gray[p + mPixel[k]] & 0xff);
+
+        int a0 = mThreshold;
+        for (int k = 0; k < N; k += 2) {
+            int a = Math.min(d[k + 1], d[k + 2]);
+            a = Math.min(a, d[k + 3]);
+            if (a <= a0)
+                continue;
+            a = Math.min(a, d[k + 4]);
+            a = Math.min(a, d[k + 5]);
+            a = Math.min(a, d[k + 6]);
+            a = Math.min(a, d[k + 7]);
+            a = Math.min(a, d[k + 8]);
+            a0 = Math.max(a0, Math.min(a, d[k]));
+            a0 = Math.max(a0, Math.min(a, d[k + 9]));
+        }
+
+        int b0 = -a0;
+        for (int k = 0; k < N; k += 2) {
+            int b = Math.max(d[k + 1], d[k + 2]);
+            b = Math.max(b, d[k + 3]);
+            b = Math.max(b, d[k + 4]);
+            b = Math.max(b, d[k + 5]);
+            if (b >= b0)
+                continue;
+            b = Math.max(b, d[k + 6]);
+            b = Math.max(b, d[k + 7]);
+            b = Math.max(b, d[k + 8]);
+            b0 = Math.min(b0, Math.max(b, d[k]));
+            b0 = Math.min(b0, Math.max(b, d[k + 9]));
+        }
+        return -b0 - 1;
+    }
+
+    /* Adds the corners of row y that beat their 8 neighbours */
+    private void emitRow(int y, int above, int row, int below, KeyPointBuffer keypoints) {
+        int[] s = mScores[row];
+        int[] sa = mScores[above];
+        int[] sb = mScores[below];
+        int[] corners = mCorners[row];
+        for (int i = 0; i < mCornerCount[row]; i++) {
+            int x = corners[i];
+            int score = s[x];
+            if (mNonmaxSuppression && (score <= s[x - 1] || score <= s[x + 1]
+                    || score <= sa[x - 1] || score <= sa[x] || score <= sa[x + 1]
+                    || score <= sb[x - 1] || score <= sb[x] || score <= sb[x + 1]))
+                continue;
+            keypoints.add(x, y, KEYPOINT_SIZE, -1f, score, 0, -1);
+        }
+    }
+}
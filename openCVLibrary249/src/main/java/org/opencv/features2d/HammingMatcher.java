@@ -0,0 +1,64 @@
+package org.opencv.features2d;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Brute-force matcher for binary descriptors written in Java.
+ * Every query is compared with every train descriptor with Long.bitCount(), which gives the
+ * same distances as DescriptorMatcher.BRUTEFORCE_HAMMING, queries are split across the threads
+ * of an ExecutorService when there are enough of them.
+ */
+public class HammingMatcher extends BinaryDescriptorMatcher {
+
+    /**
+     * Creates a matcher using a process wide pool with one thread per core.
+     */
+    public HammingMatcher() {
+        this(sharedExecutor(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param executor - pool the scan is split across, null runs every scan on the calling thread
+     * @param threads - number of tasks a scan is split into
+     */
+    public HammingMatcher(ExecutorService executor, int threads) {
+        super(executor, threads);
+    }
+
+    /*
+     * Keeps the k best train rows of each query sorted by distance in the result arrays,
+     * on ties the lower train row wins like in the native matcher.
+     */
+    @Override
+    protected void scan(long[] query, int from, int to, int k, int[] trainRow, int[] distance) {
+        final long[] train = mTrain;
+        final int words = mWords;
+        final int n = mTrainCount;
+
+        for (int q = from; q < to; q++) {
+            int r = q * k;
+            clearResult(trainRow, distance, q, k);
+            int worst = Integer.MAX_VALUE;
+            int qo = q * words;
+
+            if (words == 4) {
+                long q0 = query[qo], q1 = query[qo + 1], q2 = query[qo + 2], q3 = query[qo + 3];
+                for (int t = 0, to4 = 0; t < n; t++, to4 += 4) {
+                    int d = Long.bitCount(q0 ^ train[to4]) + Long.bitCount(q1 ^ train[to4 + 1])
+                            + Long.bitCount(q2 ^ train[to4 + 2]) + Long.bitCount(q3 ^ train[to4 + 3]);
+                    if (d < worst)
+                        worst = insert(trainRow, distance, r, k, t, d);
+                }
+            } else {
+                for (int t = 0; t < n; t++) {
+                    int d = 0;
+                    int tw = t * words;
+                    for (int w = 0; w < words; w++)
+                        d += Long.bitCount(query[qo + w] ^ train[tw + w]);
+                    if (d < worst)
+                        worst = insert(trainRow, distance, r, k, t, d);
+                }
+            }
+        }
+    }
+}
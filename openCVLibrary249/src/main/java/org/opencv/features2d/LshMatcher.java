@@ -0,0 +1,226 @@
+package org.opencv.features2d;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Approximate matcher for binary descriptors based on locality sensitive hashing, the scheme
+ * FLANN uses for binary features. Every table hashes a descriptor to the value of keyBits
+ * randomly chosen bits; a query is only compared, with Long.bitCount(), to the train
+ * descriptors sharing a bucket with it in at least one table. With multi-probe level 1 the
+ * buckets whose key differs from the query key by one bit are visited as well.
+ * More tables or probes raise the recall, more key bits make buckets smaller and the search faster.
+ * Descriptors are hashed as they are added, so train() is not needed and adding objects
+ * one at a time is cheap. Among candidates at the same distance the first one visited wins.
+ */
+public class LshMatcher extends BinaryDescriptorMatcher {
+
+    public static final int DEFAULT_TABLES = 8;
+    public static final int DEFAULT_KEY_BITS = 16;
+    public static final int DEFAULT_PROBE_LEVEL = 1;
+
+    /* Buckets are addressed directly, 2^MAX_KEY_BITS ints per table */
+    public static final int MAX_KEY_BITS = 20;
+
+    private final int mTables;
+    private final int mKeyBits;
+    private final int mProbeLevel;
+    private final long mSeed;
+
+    /* mKeyBitPositions[table * mKeyBits + i] is the descriptor bit giving bit i of the key */
+    private int[] mKeyBitPositions;
+    /* mHeads[table][key] is the last train row added to the bucket, -1 if it is empty */
+    private int[][] mHeads;
+    /* mNext[table][row] is the previous train row of the same bucket, -1 at the end */
+    private int[][] mNext;
+
+    /* Per-thread marks of the train rows already compared for the current query */
+    private final ThreadLocal<int[]> mVisited = new ThreadLocal<int[]>();
+    private final ThreadLocal<int[]> mVisitStamp = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    private long mCandidates;
+    private long mQueries;
+
+    public LshMatcher() {
+        this(DEFAULT_TABLES, DEFAULT_KEY_BITS, DEFAULT_PROBE_LEVEL);
+    }
+
+    public LshMatcher(int tables, int keyBits, int probeLevel) {
+        this(tables, keyBits, probeLevel, 0x5eed, sharedExecutor(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param tables - number of hash tables, at least 1
+     * @param keyBits - bits per key, in [1, MAX_KEY_BITS] and at most the descriptor length in bits
+     * @param probeLevel - 0 only visits the query bucket, 1 also the buckets at key distance 1
+     * @param seed - seed of the key bit selection, equal seeds give equal indices
+     * @param executor - pool the queries are split across, null runs every search on the calling thread
+     * @param threads - number of tasks a search is split into
+     */
+    public LshMatcher(int tables, int keyBits, int probeLevel, long seed, ExecutorService executor, int threads) {
+        super(executor, threads);
+        if (tables < 1)
+            throw new IllegalArgumentException("At least one table is needed, got " + tables);
+        if (keyBits < 1 || keyBits > MAX_KEY_BITS)
+            throw new IllegalArgumentException("keyBits must be in [1, " + MAX_KEY_BITS + "], got " + keyBits);
+        if (probeLevel < 0 || probeLevel > 1)
+            throw new IllegalArgumentException("probeLevel must be 0 or 1, got " + probeLevel);
+        mTables = tables;
+        mKeyBits = keyBits;
+        mProbeLevel = probeLevel;
+        mSeed = seed;
+    }
+
+    public int getTableCount() {
+        return mTables;
+    }
+
+    public int getKeyBits() {
+        return mKeyBits;
+    }
+
+    public int getProbeLevel() {
+        return mProbeLevel;
+    }
+
+    /**
+     * @return average number of train descriptors compared per query since the last clear()
+     */
+    public synchronized double getMeanCandidates() {
+        return mQueries == 0 ? 0 : (double) mCandidates / mQueries;
+    }
+
+    @Override
+    protected void onDescriptorSize(int descriptorBytes) {
+        int bits = descriptorBytes * 8;
+        if (mKeyBits > bits)
+            throw new IllegalArgumentException("keyBits " + mKeyBits + " exceeds the " + bits + " descriptor bits");
+
+        // every table samples keyBits distinct bits
+        Random random = new Random(mSeed);
+        int[] all = new int[bits];
+        mKeyBitPositions = new int[mTables * mKeyBits];
+        for (int table = 0; table < mTables; table++) {
+            for (int i = 0; i < bits; i++)
+                all[i] = i;
+            for (int i = 0; i < mKeyBits; i++) {
+                int j = i + random.nextInt(bits - i);
+                int tmp = all[i];
+                all[i] = all[j];
+                all[j] = tmp;
+                mKeyBitPositions[table * mKeyBits + i] = all[i];
+            }
+        }
+
+        mHeads = new int[mTables][1 << mKeyBits];
+        mNext = new int[mTables][0];
+        for (int table = 0; table < mTables; table++)
+            Arrays.fill(mHeads[table], -1);
+    }
+
+    @Override
+    protected void onAdded(int first, int count) {
+        int end = first + count;
+        for (int table = 0; table < mTables; table++) {
+            int[] heads = mHeads[table];
+            int[] next = mNext[table];
+            if (next.length < end) {
+                int[] grown = new int[Math.max(end, next.length * 3 / 2 + 16)];
+                System.arraycopy(next, 0, grown, 0, first);
+                next = grown;
+                mNext[table] = next;
+            }
+            for (int row = first; row < end; row++) {
+                int key = key(mTrain, row * mWords, table);
+                next[row] = heads[key];
+                heads[key] = row;
+            }
+        }
+    }
+
+    @Override
+    protected synchronized void onCleared() {
+        mKeyBitPositions = null;
+        mHeads = null;
+        mNext = null;
+        mCandidates = 0;
+        mQueries = 0;
+    }
+
+    private int key(long[] descriptors, int offset, int table) {
+        int key = 0;
+        int base = table * mKeyBits;
+        for (int i = 0; i < mKeyBits; i++) {
+            int bit = mKeyBitPositions[base + i];
+            key |= (int) ((descriptors[offset + (bit >>> 6)] >>> (bit & 63)) & 1L) << i;
+        }
+        return key;
+    }
+
+    @Override
+    protected void scan(long[] query, int from, int to, int k, int[] trainRow, int[] distance) {
+        int[] visited = mVisited.get();
+        if (visited == null || visited.length < mTrainCount) {
+            visited = new int[Math.max(mTrainCount, 16)];
+            mVisited.set(visited);
+        }
+        int[] stampHolder = mVisitStamp.get();
+
+        long candidates = 0;
+        for (int q = from; q < to; q++) {
+            clearResult(trainRow, distance, q, k);
+            int stamp = ++stampHolder[0];
+            if (stamp == Integer.MAX_VALUE) {
+                Arrays.fill(visited, 0);
+                stamp = stampHolder[0] = 1;
+            }
+
+            int qo = q * mWords;
+            for (int table = 0; table < mTables; table++) {
+                int key = key(query, qo, table);
+                candidates += probe(query, qo, table, key, k, q, trainRow, distance, visited, stamp);
+                if (mProbeLevel > 0) {
+                    for (int i = 0; i < mKeyBits; i++)
+                        candidates += probe(query, qo, table, key ^ (1 << i), k, q, trainRow, distance, visited, stamp);
+                }
+            }
+        }
+
+        synchronized (this) {
+            mCandidates += candidates;
+            mQueries += to - from;
+        }
+    }
+
+    /* Compares the query with the unvisited rows of one bucket, returns how many there were */
+    private int probe(long[] query, int qo, int table, int key, int k, int q,
+                      int[] trainRow, int[] distance, int[] visited, int stamp) {
+        final long[] train = mTrain;
+        final int words = mWords;
+        final int[] next = mNext[table];
+        int r = q * k;
+        int worst = distance[r + k - 1];
+        int compared = 0;
+
+        for (int t = mHeads[table][key]; t >= 0; t = next[t]) {
+            if (visited[t] == stamp)
+                continue;
+            visited[t] = stamp;
+            compared++;
+
+            int d = 0;
+            int tw = t * words;
+            for (int w = 0; w < words; w++)
+                d += Long.bitCount(query[qo + w] ^ train[tw + w]);
+            if (d < worst)
+                worst = insert(trainRow, distance, r, k, t, d);
+        }
+        return compared;
+    }
+}
@@ -0,0 +1,229 @@
+package org.opencv.features2d;
+
+import java.util.Random;
+
+import org.opencv.core.CvType;
+import org.opencv.core.KeyPointBuffer;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+/**
+ * ORB descriptor extractor written in Java: intensity centroid orientation and rotated BRIEF.
+ * Every keypoint gets the angle from its patch center to the intensity centroid of the patch,
+ * then 256 intensity comparisons between point pairs of a sampling pattern rotated by that
+ * angle. As in the ORB paper the angle is quantized to 12 degree steps, for which the rotated
+ * pattern is precomputed, and the comparisons are between 5x5 box sums of an integral image
+ * instead of pixels of a smoothed image.
+ * Descriptors are written 4 longs each into a packed long[], bit i of the descriptor being bit
+ * i%64 of word i/64, which is the layout of BinaryDescriptorMatcher.pack(), so they go straight
+ * into BinaryDescriptorMatcher.add(long[], int, int) and knnMatch(long[], ...).
+ * The pattern is a fixed Gaussian BRIEF pattern, not the learned pattern of the native ORB, so
+ * the descriptors are only comparable with descriptors of this extractor.
+ * Not thread safe, the buffers are reused across calls.
+ */
+public class OrbExtractor {
+
+    public static final int DESCRIPTOR_BYTES = 32;
+    public static final int WORDS_PER_DESCRIPTOR = DESCRIPTOR_BYTES / 8;
+    public static final int PATCH_SIZE = 31;
+    /* Keypoints closer to the border have no descriptor, same default as the native ORB */
+    public static final int EDGE_THRESHOLD = 31;
+
+    private static final int HALF_PATCH = PATCH_SIZE / 2;
+    private static final int BITS = DESCRIPTOR_BYTES * 8;
+    private static final int ANGLE_BINS = 30;
+    private static final int BOX = 5;
+    private static final long SEED = 0x34985739L;
+
+    /* Pattern points, x then y, points 2i and 2i + 1 are compared for bit i */
+    private static final int[] PATTERN = makePattern();
+    /* Half widths of the rows of the circular orientation patch */
+    private static final int[] UMAX = makeUmax();
+
+    /* Integral image with a zero first row and column, rows of mIntegralStride ints */
+    private int[] mIntegral = new int[0];
+    private int mIntegralStride = -1;
+    /* mOffsets[bin][point] is the offset of the box top-left corner from the keypoint, in mIntegral */
+    private final int[][] mOffsets = new int[ANGLE_BINS][2 * BITS];
+
+    private static int[] makePattern() {
+        // Gaussian pairs around the center as in BRIEF, sigma^2 = S^2 / 25, kept inside the patch
+        Random random = new Random(SEED);
+        int[] pattern = new int[4 * BITS];
+        double sigma = PATCH_SIZE / 5.0;
+        for (int i = 0; i < pattern.length; i++) {
+            int v;
+            do {
+                v = (int) Math.round(random.nextGaussian() * sigma);
+            } while (v < -HALF_PATCH || v > HALF_PATCH);
+            pattern[i] = v;
+        }
+        return pattern;
+    }
+
+    private static int[] makeUmax() {
+        int[] umax = new int[HALF_PATCH + 1];
+        for (int v = 0; v <= HALF_PATCH; v++)
+            umax[v] = (int) Math.floor(Math.sqrt((double) HALF_PATCH * HALF_PATCH - v * v) + 0.5);
+        return umax;
+    }
+
+    /**
+     * Computes the descriptors of a CV_8UC1 image into CV_8UC1 rows of DESCRIPTOR_BYTES bytes,
+     * like DescriptorExtractor.compute(). Keypoints without a descriptor are removed.
+     */
+    public void compute(Mat image, MatOfKeyPoint keypoints, Mat descriptors) {
+        if (image.type() != CvType.CV_8UC1)
+            throw new IllegalArgumentException("ORB needs a CV_8UC1 image\n" + image);
+        int width = image.cols();
+        int height = image.rows();
+        byte[] gray = new byte[width * height];
+        if (gray.length > 0)
+            image.get(0, 0, gray);
+        KeyPointBuffer buffer = new KeyPointBuffer().load(keypoints);
+        long[] packed = compute(gray, 0, width, height, width, buffer, null);
+        buffer.store(keypoints);
+
+        int n = buffer.count();
+        if (n == 0) {
+            descriptors.release();
+            return;
+        }
+        descriptors.create(n, DESCRIPTOR_BYTES, CvType.CV_8UC1);
+        descriptors.put(0, 0, unpack(packed, n));
+    }
+
+    /* Bytes of count packed descriptors, the inverse of BinaryDescriptorMatcher.pack() */
+    static byte[] unpack(long[] packed, int count) {
+        byte[] bytes = new byte[count * DESCRIPTOR_BYTES];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (packed[i >> 3] >>> ((i & 7) * 8));
+        return bytes;
+    }
+
+    /**
+     * Computes the orientation and the descriptor of every keypoint. Keypoints closer than
+     * EDGE_THRESHOLD to the border are removed from keypoints, the angle of the others is set.
+     * @param offset - index of the top-left pixel in gray
+     * @param stride - distance between the first pixels of two rows, at least width
+     * @param out - array to write the descriptors to, may be null
+     * @return out if it holds WORDS_PER_DESCRIPTOR words per remaining keypoint, a new array
+     * otherwise; the descriptor of keypoint i starts at word i * WORDS_PER_DESCRIPTOR
+     */
+    public long[] compute(byte[] gray, int offset, int width, int height, int stride, KeyPointBuffer keypoints, long[] out) {
+        if (stride < width || offset < 0 || (height > 0 && offset + (height - 1) * stride + width > gray.length))
+            throw new IllegalArgumentException("Image " + width + "x" + height + " with stride " + stride +
+                    " at " + offset + " does not fit in " + gray.length + " bytes");
+
+        // drop the keypoints too close to the border, like KeyPointsFilter::runByImageBorder
+        float[] kp = keypoints.data();
+        int kept = 0;
+        for (int i = 0; i < keypoints.count(); i++) {
+            int o = i * KeyPointBuffer.CHANNELS;
+            float x = kp[o];
+            float y = kp[o + 1];
+            if (x < EDGE_THRESHOLD || y < EDGE_THRESHOLD || x >= width - EDGE_THRESHOLD || y >= height - EDGE_THRESHOLD)
+                continue;
+            if (kept != i)
+                System.arraycopy(kp, o, kp, kept * KeyPointBuffer.CHANNELS, KeyPointBuffer.CHANNELS);
+            kept++;
+        }
+        keypoints.truncate(kept);
+
+        if (out == null || out.length < kept * WORDS_PER_DESCRIPTOR)
+            out = new long[kept * WORDS_PER_DESCRIPTOR];
+        if (kept == 0)
+            return out;
+
+        buildIntegral(gray, offset, width, height, stride);
+        final int[] integral = mIntegral;
+        final int is = mIntegralStride;
+        final int corner = BOX * is + BOX;
+
+        for (int i = 0; i < kept; i++) {
+            int o = i * KeyPointBuffer.CHANNELS;
+            int cx = Math.round(kp[o]);
+            int cy = Math.round(kp[o + 1]);
+            float angle = orientation(gray, offset + cy * stride + cx, stride);
+            kp[o + 3] = angle;
+
+            int bin = Math.round(angle * ANGLE_BINS / 360f) % ANGLE_BINS;
+            int[] offsets = mOffsets[bin];
+            int center = cy * is + cx;
+            int w = i * WORDS_PER_DESCRIPTOR;
+            for (int word = 0; word < WORDS_PER_DESCRIPTOR; word++) {
+                long bits = 0;
+                for (int b = 0; b < 64; b++) {
+                    int p = 2 * (word * 64 + b);
+                    int a = center + offsets[p];
+                    int c = center + offsets[p + 1];
+                    int sa = integral[a + corner] - integral[a + BOX] - integral[a + BOX * is] + integral[a];
+                    int sc = integral[c + corner] - integral[c + BOX] - integral[c + BOX * is] + integral[c];
+                    if (sa < sc)
+                        bits |= 1L << b;
+                }
+                out[w + word] = bits;
+            }
+        }
+        return out;
+    }
+
+    /* Angle in degrees, in [0, 360), from the center pixel to the intensity centroid of the patch */
+    private static float orientation(byte[] gray, int center, int stride) {
+        int m01 = 0;
+        int m10 = 0;
+        for (int u = -HALF_PATCH; u <= HALF_PATCH; u++)
+            m10 += u * (gray[center + u] & 0xff);
+        for (int v = 1; v <= HALF_PATCH; v++) {
+            int sum = 0;
+            int d = UMAX[v];
+            for (int u = -d; u <= d; u++) {
+                int below = gray[center + v * stride + u] & 0xff;
+                int above = gray[center - v * stride + u] & 0xff;
+                sum += below - above;
+                m10 += u * (below + above);
+            }
+            m01 += v * sum;
+        }
+        float angle = (float) Math.toDegrees(Math.atan2(m01, m10));
+        return angle < 0 ? angle + 360f : angle;
+    }
+
+    /* Sums of the pixels above and left of each position, plus the rotated pattern offsets */
+    private void buildIntegral(byte[] gray, int offset, int width, int height, int stride) {
+        int is = width + 1;
+        int size = is * (height + 1);
+        if (mIntegral.length < size)
+            mIntegral = new int[size];
+        final int[] integral = mIntegral;
+        for (int x = 0; x < is; x++)
+            integral[x] = 0;
+        for (int y = 0; y < height; y++) {
+            int row = (y + 1) * is;
+            int src = offset + y * stride;
+            int sum = 0;
+            integral[row] = 0;
+            for (int x = 0; x < width; x++) {
+                sum += gray[src + x] & 0xff;
+                integral[row + x + 1] = integral[row - is + x + 1] + sum;
+            }
+        }
+
+        if (is != mIntegralStride) {
+            // box of point (x, y) covers pixels x - 2 .. x + 2, its top-left integral entry is at (x - 2, y - 2)
+            for (int bin = 0; bin < ANGLE_BINS; bin++) {
+                double theta = Math.toRadians(bin * 360.0 / ANGLE_BINS);
+                double a = Math.cos(theta);
+                double b = Math.sin(theta);
+                for (int p = 0; p < 2 * BITS; p++) {
+                    int px = PATTERN[2 * p];
+                    int py = PATTERN[2 * p + 1];
+                    int rx = (int) Math.round(px * a - py * b);
+                    int ry = (int) Math.round(px * b + py * a);
+                    mOffsets[bin][p] = (ry - BOX / 2) * is + (rx - BOX / 2);
+                }
+            }
+            mIntegralStride = is;
+        }
+    }
+}
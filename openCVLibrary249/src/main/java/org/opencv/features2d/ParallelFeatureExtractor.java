@@ -0,0 +1,171 @@
+package org.opencv.features2d;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+/**
+ * Runs a FeatureDetector and a DescriptorExtractor over a list of images on the threads of an
+ * ExecutorService. The list overloads of FeatureDetector and DescriptorExtractor process the
+ * images one after the other in a single native call; here every worker owns its own native
+ * detector and extractor, so the images are processed in parallel without sharing any state.
+ * Workers take the next unprocessed image as they finish one, which keeps them busy when image
+ * sizes differ. Results are returned in input order whatever the order of completion.
+ * A batch call must not overlap with another one on the same instance.
+ */
+public class ParallelFeatureExtractor {
+
+    private static final int DETECT = 1;
+    private static final int COMPUTE = 2;
+
+    private final int mDetectorType;
+    private final int mExtractorType;
+    private final ExecutorService mExecutor;
+    private final int mThreads;
+
+    /* One detector and extractor per worker, created on first use */
+    private final FeatureDetector[] mDetectors;
+    private final DescriptorExtractor[] mExtractors;
+
+    /**
+     * Creates an extractor using a process wide pool with one thread per core.
+     * @param detectorType - one of the FeatureDetector types
+     * @param extractorType - one of the DescriptorExtractor types
+     */
+    public ParallelFeatureExtractor(int detectorType, int extractorType) {
+        this(detectorType, extractorType, BinaryDescriptorMatcher.sharedExecutor(),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param executor - pool the images are spread across, null processes them on the calling thread
+     * @param threads - number of workers, each with its own detector and extractor
+     */
+    public ParallelFeatureExtractor(int detectorType, int extractorType, ExecutorService executor, int threads) {
+        mDetectorType = detectorType;
+        mExtractorType = extractorType;
+        mExecutor = executor;
+        mThreads = executor == null ? 1 : Math.max(1, threads);
+        mDetectors = new FeatureDetector[mThreads];
+        mExtractors = new DescriptorExtractor[mThreads];
+    }
+
+    public int getThreadCount() {
+        return mThreads;
+    }
+
+    /**
+     * Detects the keypoints of every image.
+     * @param keypoints - cleared and filled with the keypoints of images[i] at index i
+     * @param nanos - if not null, receives the time spent on images[i] at index i
+     */
+    public void detect(List<Mat> images, List<MatOfKeyPoint> keypoints, long[] nanos) {
+        keypoints.clear();
+        for (int i = 0; i < images.size(); i++)
+            keypoints.add(new MatOfKeyPoint());
+        run(images, keypoints, null, nanos, DETECT);
+    }
+
+    /**
+     * Computes the descriptors of given keypoints. Keypoints without a descriptor are removed
+     * from keypoints, like in DescriptorExtractor.compute().
+     * @param descriptors - cleared and filled with the descriptors of images[i] at index i
+     * @param nanos - if not null, receives the time spent on images[i] at index i
+     */
+    public void compute(List<Mat> images, List<MatOfKeyPoint> keypoints, List<Mat> descriptors, long[] nanos) {
+        if (keypoints.size() != images.size())
+            throw new IllegalArgumentException("Got " + keypoints.size() + " keypoint sets for " + images.size() + " images");
+        fillDescriptors(images.size(), descriptors);
+        run(images, keypoints, descriptors, nanos, COMPUTE);
+    }
+
+    /**
+     * Detects the keypoints of every image and computes their descriptors in one pass, so an
+     * image is only touched by one worker.
+     * @param keypoints - cleared and filled with the keypoints of images[i] at index i
+     * @param descriptors - cleared and filled with the descriptors of images[i] at index i
+     * @param nanos - if not null, receives the detection and extraction time of images[i] at index i
+     */
+    public void detectAndCompute(List<Mat> images, List<MatOfKeyPoint> keypoints, List<Mat> descriptors, long[] nanos) {
+        keypoints.clear();
+        for (int i = 0; i < images.size(); i++)
+            keypoints.add(new MatOfKeyPoint());
+        fillDescriptors(images.size(), descriptors);
+        run(images, keypoints, descriptors, nanos, DETECT | COMPUTE);
+    }
+
+    private static void fillDescriptors(int count, List<Mat> descriptors) {
+        descriptors.clear();
+        for (int i = 0; i < count; i++)
+            descriptors.add(new Mat());
+    }
+
+    private void run(final List<Mat> images, final List<MatOfKeyPoint> keypoints, final List<Mat> descriptors,
+                     final long[] nanos, final int stages) {
+        final int count = images.size();
+        if (nanos != null && nanos.length < count)
+            throw new IllegalArgumentException("nanos holds " + nanos.length + " timings for " + count + " images");
+
+        int tasks = Math.min(mThreads, count);
+        if (tasks <= 1) {
+            for (int i = 0; i < count; i++)
+                process(0, i, images, keypoints, descriptors, nanos, stages);
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        List<Callable<Void>> work = new ArrayList<Callable<Void>>(tasks);
+        for (int w = 0; w < tasks; w++) {
+            final int worker = w;
+            work.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement())
+                        process(worker, i, images, keypoints, descriptors, nanos, stages);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> f : mExecutor.invokeAll(work))
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while extracting features", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Feature extraction failed", e.getCause());
+        }
+    }
+
+    private void process(int worker, int i, List<Mat> images, List<MatOfKeyPoint> keypoints, List<Mat> descriptors,
+                         long[] nanos, int stages) {
+        long start = System.nanoTime();
+        Mat image = images.get(i);
+        if ((stages & DETECT) != 0)
+            detector(worker).detect(image, keypoints.get(i));
+        if ((stages & COMPUTE) != 0)
+            extractor(worker).compute(image, keypoints.get(i), descriptors.get(i));
+        if (nanos != null)
+            nanos[i] = System.nanoTime() - start;
+    }
+
+    /* Each slot is only used by its own worker, the invokeAll() barrier publishes it to the next batch */
+    private FeatureDetector detector(int worker) {
+        if (mDetectors[worker] == null)
+            mDetectors[worker] = FeatureDetector.create(mDetectorType);
+        return mDetectors[worker];
+    }
+
+    private DescriptorExtractor extractor(int worker) {
+        if (mExtractors[worker] == null)
+            mExtractors[worker] = DescriptorExtractor.create(mExtractorType);
+        return mExtractors[worker];
+    }
+}
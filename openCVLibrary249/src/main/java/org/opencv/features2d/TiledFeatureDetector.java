@@ -0,0 +1,260 @@
+package org.opencv.features2d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.KeyPointBuffer;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+/**
+ * Detects keypoints on a grid of tiles processed in parallel, like the GRID_ detector adapters
+ * but on the threads of an ExecutorService. The image is split into rows x cols cells; each tile
+ * is its cell grown by an overlap on every side, so that the detector sees the full neighbourhood
+ * of the keypoints near the cell border. A keypoint belongs to the cell holding its center, the
+ * copies found in the overlap of the neighbouring tiles are dropped. Seams neither lose nor
+ * duplicate keypoints as long as the overlap covers the border the detector leaves at its
+ * coarsest scale, in full resolution pixels: the default overlap of defaultOverlap() does for
+ * the default ORB pyramid and for single scale detectors like FAST, other multi-scale detectors
+ * need an explicit one. Detectors keeping a fixed number of features, like ORB with nfeatures,
+ * keep that many per tile, so the result is not the one of a single detect() on the image.
+ * Each cell keeps its maxPerCell strongest keypoints, which also spreads them over the image.
+ * Every worker owns its own native detector. A detect() call must not overlap with another one
+ * on the same instance.
+ */
+public class TiledFeatureDetector {
+
+    /* Covers the border of single scale detectors, e.g. the 3 pixel circle of FAST */
+    public static final int DEFAULT_OVERLAP = 32;
+    /* Border of the default ORB at its coarsest level: edgeThreshold 31, 8 levels, scale factor 1.2 */
+    public static final int ORB_OVERLAP = pyramidOverlap(31, 1.2, 8);
+
+    private final int mDetectorType;
+    private final int mRows;
+    private final int mCols;
+    private final int mOverlap;
+    private final int mMaxPerCell;
+    private final ExecutorService mExecutor;
+    private final int mThreads;
+
+    /* Per worker detector and tile buffers, created on first use */
+    private final FeatureDetector[] mDetectors;
+    private final MatOfKeyPoint[] mTileKeypoints;
+    private final KeyPointBuffer[] mTileBuffers;
+    private final float[][] mResponses;
+    /* Keypoints kept per cell, merged in cell order so the result does not depend on timing */
+    private final KeyPointBuffer[] mCells;
+    private final KeyPointBuffer mMerged = new KeyPointBuffer();
+
+    /**
+     * Creates a detector using a process wide pool with one thread per core, keeping every
+     * keypoint of a cell, with the defaultOverlap() of the detector type.
+     */
+    public TiledFeatureDetector(int detectorType, int rows, int cols) {
+        this(detectorType, rows, cols, defaultOverlap(detectorType), 0, BinaryDescriptorMatcher.sharedExecutor(),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return ORB_OVERLAP for ORB and its grid and dynamic adapters, DEFAULT_OVERLAP for the others
+     */
+    public static int defaultOverlap(int detectorType) {
+        switch (detectorType) {
+            case FeatureDetector.ORB:
+            case FeatureDetector.GRID_ORB:
+            case FeatureDetector.DYNAMIC_ORB:
+                return ORB_OVERLAP;
+            default:
+                return DEFAULT_OVERLAP;
+        }
+    }
+
+    /**
+     * @return overlap covering a border of edgeThreshold pixels at every level of a pyramid of
+     * the given number of levels, each one scaleFactor times smaller than the previous one
+     */
+    public static int pyramidOverlap(int edgeThreshold, double scaleFactor, int levels) {
+        return (int) Math.ceil(edgeThreshold * Math.pow(scaleFactor, levels - 1)) + 1;
+    }
+
+    /**
+     * @param detectorType - one of the FeatureDetector types
+     * @param rows - rows of cells, at least 1
+     * @param cols - columns of cells, at least 1
+     * @param overlap - pixels a tile extends past its cell on every side, at least the border of
+     *                the detector at its coarsest scale for the seams to be exact
+     * @param maxPerCell - keypoints kept per cell by response, 0 keeps them all
+     * @param executor - pool the tiles are spread across, null detects on the calling thread
+     * @param threads - number of workers, each with its own detector
+     */
+    public TiledFeatureDetector(int detectorType, int rows, int cols, int overlap, int maxPerCell,
+                                ExecutorService executor, int threads) {
+        if (rows < 1 || cols < 1)
+            throw new IllegalArgumentException("The grid needs at least one cell, got " + rows + "x" + cols);
+        if (overlap < 0 || maxPerCell < 0)
+            throw new IllegalArgumentException("overlap and maxPerCell must not be negative");
+        mDetectorType = detectorType;
+        mRows = rows;
+        mCols = cols;
+        mOverlap = overlap;
+        mMaxPerCell = maxPerCell;
+        mExecutor = executor;
+        mThreads = executor == null ? 1 : Math.max(1, Math.min(threads, rows * cols));
+        mDetectors = new FeatureDetector[mThreads];
+        mTileKeypoints = new MatOfKeyPoint[mThreads];
+        mTileBuffers = new KeyPointBuffer[mThreads];
+        mResponses = new float[mThreads][];
+        mCells = new KeyPointBuffer[rows * cols];
+        for (int c = 0; c < mCells.length; c++)
+            mCells[c] = new KeyPointBuffer();
+    }
+
+    public int getThreadCount() {
+        return mThreads;
+    }
+
+    public int getOverlap() {
+        return mOverlap;
+    }
+
+    /**
+     * Releases the native buffers of the workers. The detector stays usable, the next detect()
+     * creates them again.
+     */
+    public void release() {
+        for (int w = 0; w < mThreads; w++) {
+            if (mTileKeypoints[w] != null)
+                mTileKeypoints[w].release();
+            mTileKeypoints[w] = null;
+            mDetectors[w] = null;
+        }
+    }
+
+    /**
+     * @param keypoints - receives the keypoints in image coordinates, grouped by cell in row order
+     */
+    public void detect(final Mat image, MatOfKeyPoint keypoints) {
+        final int cells = mRows * mCols;
+        if (mThreads <= 1) {
+            for (int c = 0; c < cells; c++)
+                detectCell(0, c, image);
+        } else {
+            final AtomicInteger next = new AtomicInteger();
+            List<Callable<Void>> work = new ArrayList<Callable<Void>>(mThreads);
+            for (int w = 0; w < mThreads; w++) {
+                final int worker = w;
+                work.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int c = next.getAndIncrement(); c < cells; c = next.getAndIncrement())
+                            detectCell(worker, c, image);
+                        return null;
+                    }
+                });
+            }
+            try {
+                for (Future<Void> f : mExecutor.invokeAll(work))
+                    f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while detecting", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Detection failed", e.getCause());
+            }
+        }
+
+        mMerged.clear();
+        for (int c = 0; c < cells; c++) {
+            KeyPointBuffer cell = mCells[c];
+            float[] d = cell.data();
+            for (int i = 0, o = 0; i < cell.count(); i++, o += KeyPointBuffer.CHANNELS)
+                mMerged.add(d[o], d[o + 1], d[o + 2], d[o + 3], d[o + 4], (int) d[o + 5], (int) d[o + 6]);
+        }
+        mMerged.store(keypoints);
+    }
+
+    private void detectCell(int worker, int cell, Mat image) {
+        int width = image.cols();
+        int height = image.rows();
+        int row = cell / mCols;
+        int col = cell % mCols;
+        int x0 = col * width / mCols;
+        int x1 = (col + 1) * width / mCols;
+        int y0 = row * height / mRows;
+        int y1 = (row + 1) * height / mRows;
+        int tx0 = Math.max(0, x0 - mOverlap);
+        int tx1 = Math.min(width, x1 + mOverlap);
+        int ty0 = Math.max(0, y0 - mOverlap);
+        int ty1 = Math.min(height, y1 + mOverlap);
+
+        KeyPointBuffer out = mCells[cell];
+        out.clear();
+        if (x1 <= x0 || y1 <= y0)
+            return;
+
+        if (mDetectors[worker] == null) {
+            mDetectors[worker] = FeatureDetector.create(mDetectorType);
+            mTileKeypoints[worker] = new MatOfKeyPoint();
+            mTileBuffers[worker] = new KeyPointBuffer();
+        }
+        Mat tile = image.submat(ty0, ty1, tx0, tx1);
+        try {
+            mDetectors[worker].detect(tile, mTileKeypoints[worker]);
+        } finally {
+            tile.release();
+        }
+
+        // keep the keypoints centered in the cell itself, in image coordinates
+        KeyPointBuffer found = mTileBuffers[worker].load(mTileKeypoints[worker]);
+        float[] d = found.data();
+        for (int i = 0, o = 0; i < found.count(); i++, o += KeyPointBuffer.CHANNELS) {
+            float x = d[o] + tx0;
+            float y = d[o + 1] + ty0;
+            if (x < x0 || x >= x1 || y < y0 || y >= y1)
+                continue;
+            out.add(x, y, d[o + 2], d[o + 3], d[o + 4], (int) d[o + 5], (int) d[o + 6]);
+        }
+        if (mMaxPerCell > 0 && out.count() > mMaxPerCell)
+            keepStrongest(worker, out);
+    }
+
+    /* Keeps the mMaxPerCell keypoints of largest response, in their detection order */
+    private void keepStrongest(int worker, KeyPointBuffer cell) {
+        int n = cell.count();
+        float[] d = cell.data();
+        float[] responses = mResponses[worker];
+        if (responses == null || responses.length < n) {
+            responses = new float[n];
+            mResponses[worker] = responses;
+        }
+        for (int i = 0; i < n; i++)
+            responses[i] = d[i * KeyPointBuffer.CHANNELS + 4];
+        Arrays.sort(responses, 0, n);
+        float threshold = responses[n - mMaxPerCell];
+        int above = 0;
+        for (int i = n - mMaxPerCell; i < n; i++) {
+            if (responses[i] > threshold)
+                above++;
+        }
+        int atThreshold = mMaxPerCell - above;
+
+        // compact in place, ties at the threshold go to the first detected
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            int o = i * KeyPointBuffer.CHANNELS;
+            float r = d[o + 4];
+            if (r < threshold || (r == threshold && atThreshold-- <= 0))
+                continue;
+            if (kept != i)
+                System.arraycopy(d, o, d, kept * KeyPointBuffer.CHANNELS, KeyPointBuffer.CHANNELS);
+            kept++;
+        }
+        cell.truncate(kept);
+    }
+}
@@ -626,6 +626,164 @@ public class Converters {
         }
     }
 
+    // Primitive array variants of the vector converters above. They take and return the
+    // elements as a primitive array plus a count, so nothing is boxed on the way.
+
+    public static Mat vector_float_to_Mat(float[] fs, int count) {
+        Mat res;
+        if (count < 0 || count > ((fs != null) ? fs.length : 0))
+            throw new java.lang.IllegalArgumentException("count " + count + " is out of the array bounds");
+        if (count > 0) {
+            res = new Mat(count, 1, CvType.CV_32FC1);
+            res.put(0, 0, fs, 0, count);
+        } else {
+            res = new Mat();
+        }
+        return res;
+    }
+
+    /**
+     * Reads the elements of m into fs if it is large enough, into a new array otherwise.
+     * The number of elements is m.rows().
+     * @return the array holding the elements
+     */
+    public static float[] Mat_to_vector_float(Mat m, float[] fs) {
+        int count = m.rows();
+        if (CvType.CV_32FC1 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32FC1 != m.type() ||  m.cols()!=1\n" + m);
+
+        if (fs == null || fs.length < count)
+            fs = new float[count];
+        if (count > 0)
+            m.get(0, 0, fs, 0, count);
+        return fs;
+    }
+
+    public static Mat vector_uchar_to_Mat(byte[] bs, int count) {
+        Mat res;
+        if (count < 0 || count > ((bs != null) ? bs.length : 0))
+            throw new java.lang.IllegalArgumentException("count " + count + " is out of the array bounds");
+        if (count > 0) {
+            res = new Mat(count, 1, CvType.CV_8UC1);
+            res.put(0, 0, bs, 0, count);
+        } else {
+            res = new Mat();
+        }
+        return res;
+    }
+
+    /**
+     * Reads the elements of m into bs if it is large enough, into a new array otherwise.
+     * The number of elements is m.rows().
+     * @return the array holding the elements
+     */
+    public static byte[] Mat_to_vector_uchar(Mat m, byte[] bs) {
+        int count = m.rows();
+        if (CvType.CV_8UC1 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_8UC1 != m.type() ||  m.cols()!=1\n" + m);
+
+        if (bs == null || bs.length < count)
+            bs = new byte[count];
+        if (count > 0)
+            m.get(0, 0, bs, 0, count);
+        return bs;
+    }
+
+    public static Mat vector_char_to_Mat(byte[] bs, int count) {
+        Mat res;
+        if (count < 0 || count > ((bs != null) ? bs.length : 0))
+            throw new java.lang.IllegalArgumentException("count " + count + " is out of the array bounds");
+        if (count > 0) {
+            res = new Mat(count, 1, CvType.CV_8SC1);
+            res.put(0, 0, bs, 0, count);
+        } else {
+            res = new Mat();
+        }
+        return res;
+    }
+
+    /**
+     * Reads the elements of m into bs if it is large enough, into a new array otherwise.
+     * The number of elements is m.rows().
+     * @return the array holding the elements
+     */
+    public static byte[] Mat_to_vector_char(Mat m, byte[] bs) {
+        int count = m.rows();
+        if (CvType.CV_8SC1 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_8SC1 != m.type() ||  m.cols()!=1\n" + m);
+
+        if (bs == null || bs.length < count)
+            bs = new byte[count];
+        if (count > 0)
+            m.get(0, 0, bs, 0, count);
+        return bs;
+    }
+
+    public static Mat vector_int_to_Mat(int[] is, int count) {
+        Mat res;
+        if (count < 0 || count > ((is != null) ? is.length : 0))
+            throw new java.lang.IllegalArgumentException("count " + count + " is out of the array bounds");
+        if (count > 0) {
+            res = new Mat(count, 1, CvType.CV_32SC1);
+            res.put(0, 0, is, 0, count);
+        } else {
+            res = new Mat();
+        }
+        return res;
+    }
+
+    /**
+     * Reads the elements of m into is if it is large enough, into a new array otherwise.
+     * The number of elements is m.rows().
+     * @return the array holding the elements
+     */
+    public static int[] Mat_to_vector_int(Mat m, int[] is) {
+        int count = m.rows();
+        if (CvType.CV_32SC1 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32SC1 != m.type() ||  m.cols()!=1\n" + m);
+
+        if (is == null || is.length < count)
+            is = new int[count];
+        if (count > 0)
+            m.get(0, 0, is, 0, count);
+        return is;
+    }
+
+    public static Mat vector_double_to_Mat(double[] ds, int count) {
+        Mat res;
+        if (count < 0 || count > ((ds != null) ? ds.length : 0))
+            throw new java.lang.IllegalArgumentException("count " + count + " is out of the array bounds");
+        if (count > 0) {
+            res = new Mat(count, 1, CvType.CV_64FC1);
+            res.put(0, 0, ds, 0, count);
+        } else {
+            res = new Mat();
+        }
+        return res;
+    }
+
+    /**
+     * Reads the elements of m into ds if it is large enough, into a new array otherwise.
+     * The number of elements is m.rows().
+     * @return the array holding the elements
+     */
+    public static double[] Mat_to_vector_double(Mat m, double[] ds) {
+        int count = m.rows();
+        if (CvType.CV_64FC1 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_64FC1 != m.type() ||  m.cols()!=1\n" + m);
+
+        if (ds == null || ds.length < count)
+            ds = new double[count];
+        if (count > 0)
+            m.get(0, 0, ds, 0, count);
+        return ds;
+    }
+
     public static Mat vector_DMatch_to_Mat(List<DMatch> matches) {
         Mat res;
         int count = (matches != null) ? matches.size() : 0;
@@ -0,0 +1,45 @@
+package org.opencv.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that corrupted record headers raise an IOException before any Mat is allocated.
+ */
+public class BinaryMatReaderTest {
+
+    @Test
+    public void hasNext_acceptsTheLargestChannelCount() throws IOException {
+        assertTrue(reader(CvType.CV_8U + (511 << 3), 0, 0).hasNext());
+    }
+
+    @Test(expected = IOException.class)
+    public void hasNext_rejectsTooManyChannels() throws IOException {
+        reader(CvType.CV_8U + (512 << 3), 1, 1).hasNext();
+    }
+
+    @Test(expected = IOException.class)
+    public void hasNext_rejectsUnknownDepth() throws IOException {
+        reader(7, 1, 1).hasNext();
+    }
+
+    @Test(expected = IOException.class)
+    public void hasNext_rejectsNegativeSize() throws IOException {
+        reader(CvType.CV_8UC1, -1, 1).hasNext();
+    }
+
+    // a file holding a single record header without its data
+    private static BinaryMatReader reader(int type, int rows, int cols) throws IOException {
+        ByteBuffer file = ByteBuffer.allocate(BinaryMatWriter.HEADER_BYTES + BinaryMatWriter.RECORD_HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(BinaryMatWriter.MAGIC).putInt(BinaryMatWriter.VERSION);
+        file.putInt(type).putInt(rows).putInt(cols);
+        file.flip();
+        return new BinaryMatReader(file);
+    }
+}
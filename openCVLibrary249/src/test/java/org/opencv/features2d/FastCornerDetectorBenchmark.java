@@ -0,0 +1,67 @@
+package org.opencv.features2d;
+
+import org.opencv.core.KeyPointBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of FastCornerDetector against the reference detector of FastCornerDetectorTest,
+ * both run on the same frame, whose corners they must agree on. Run on the JVM with
+ *   java -cp &lt;test classpath&gt; org.openjdk.jmh.Main FastCornerDetectorBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastCornerDetectorBenchmark {
+
+    @Param({ "640x480", "1280x720" })
+    public String frameSize;
+
+    @Param({ "10", "40" })
+    public int threshold;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mImage;
+    private FastCornerDetector mDetector;
+    private final KeyPointBuffer mKeypoints = new KeyPointBuffer();
+
+    @Setup
+    public void setUp() {
+        mWidth = Integer.parseInt(frameSize.substring(0, frameSize.indexOf('x')));
+        mHeight = Integer.parseInt(frameSize.substring(frameSize.indexOf('x') + 1));
+        mImage = FastCornerDetectorTest.blockyImage(new Random(1), mWidth, mHeight);
+        mDetector = new FastCornerDetector(threshold, true);
+
+        mDetector.detect(mImage, 0, mWidth, mHeight, mWidth, mKeypoints);
+        KeyPointBuffer expected = FastCornerDetectorTest.reference(mImage, mWidth, mHeight, threshold, true);
+        if (!FastCornerDetectorTest.describe(expected).equals(FastCornerDetectorTest.describe(mKeypoints)))
+            throw new IllegalStateException("FastCornerDetector and the reference disagree on the " + frameSize + " frame");
+    }
+
+    @Benchmark
+    public KeyPointBuffer detect() {
+        mDetector.detect(mImage, 0, mWidth, mHeight, mWidth, mKeypoints);
+        return mKeypoints;
+    }
+
+    @Benchmark
+    public KeyPointBuffer reference() {
+        return FastCornerDetectorTest.reference(mImage, mWidth, mHeight, threshold, true);
+    }
+}
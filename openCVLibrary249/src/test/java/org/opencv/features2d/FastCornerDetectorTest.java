@@ -0,0 +1,176 @@
+package org.opencv.features2d;
+
+import org.junit.Test;
+import org.opencv.core.KeyPointBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks FastCornerDetector against a direct implementation of the FAST-9/16 definition: 9
+ * contiguous circle pixels all brighter or all darker than the center by more than the threshold.
+ */
+public class FastCornerDetectorTest {
+
+    private static final int[] CIRCLE_X = { 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1 };
+    private static final int[] CIRCLE_Y = { 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1, 0, 1, 2, 3 };
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 150;
+
+    @Test
+    public void detect_withSuppression_equalsReference() {
+        byte[] image = blockyImage(new Random(1), WIDTH, HEIGHT);
+        for (int threshold : new int[] { 10, 20, 40 }) {
+            KeyPointBuffer keypoints = new KeyPointBuffer();
+            new FastCornerDetector(threshold, true).detect(image, 0, WIDTH, HEIGHT, WIDTH, keypoints);
+            List<String> expected = describe(reference(image, WIDTH, HEIGHT, threshold, true));
+            assertFalse(expected.isEmpty());
+            assertEquals("threshold " + threshold, expected, describe(keypoints));
+        }
+    }
+
+    @Test
+    public void detect_withoutSuppression_equalsReference() {
+        byte[] image = blockyImage(new Random(2), WIDTH, HEIGHT);
+        KeyPointBuffer keypoints = new KeyPointBuffer();
+        new FastCornerDetector(20, false).detect(image, 0, WIDTH, HEIGHT, WIDTH, keypoints);
+        assertEquals(describe(reference(image, WIDTH, HEIGHT, 20, false)), describe(keypoints));
+    }
+
+    @Test
+    public void detect_honoursOffsetAndStride() {
+        byte[] image = blockyImage(new Random(3), WIDTH, HEIGHT);
+        int stride = WIDTH + 13;
+        int offset = 5;
+        byte[] padded = new byte[offset + HEIGHT * stride];
+        new Random(4).nextBytes(padded);
+        for (int y = 0; y < HEIGHT; y++)
+            System.arraycopy(image, y * WIDTH, padded, offset + y * stride, WIDTH);
+
+        FastCornerDetector detector = new FastCornerDetector(20, true);
+        KeyPointBuffer expected = new KeyPointBuffer();
+        detector.detect(image, 0, WIDTH, HEIGHT, WIDTH, expected);
+        KeyPointBuffer actual = new KeyPointBuffer();
+        detector.detect(padded, offset, WIDTH, HEIGHT, stride, actual);
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    @Test
+    public void detect_reportsTheNativeKeypointFields() {
+        byte[] image = new byte[20 * 20];
+        // a bright pixel on a dark background is the only corner
+        image[10 * 20 + 10] = (byte) 200;
+        KeyPointBuffer keypoints = new KeyPointBuffer();
+        new FastCornerDetector(10, true).detect(image, 0, 20, 20, 20, keypoints);
+        assertEquals(1, keypoints.count());
+        assertEquals(10f, keypoints.x(0), 0f);
+        assertEquals(10f, keypoints.y(0), 0f);
+        assertEquals(7f, keypoints.size(0), 0f);
+        assertEquals(-1f, keypoints.angle(0), 0f);
+        assertEquals(199f, keypoints.response(0), 0f);
+        assertEquals(0, keypoints.octave(0));
+        assertEquals(-1, keypoints.classId(0));
+    }
+
+    @Test
+    public void detect_findsNothingInFlatOrTinyImages() {
+        KeyPointBuffer keypoints = new KeyPointBuffer();
+        FastCornerDetector detector = new FastCornerDetector();
+        detector.detect(new byte[64 * 64], 0, 64, 64, 64, keypoints);
+        assertEquals(0, keypoints.count());
+
+        byte[] tiny = new byte[6 * 6];
+        new Random(5).nextBytes(tiny);
+        detector.detect(tiny, 0, 6, 6, 6, keypoints);
+        assertEquals(0, keypoints.count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void detect_rejectsImageLargerThanTheArray() {
+        new FastCornerDetector().detect(new byte[100], 0, 10, 11, 10, new KeyPointBuffer());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsThresholdOutOfRange() {
+        new FastCornerDetector(256, true);
+    }
+
+    // keypoints as "x,y,response" in row order, the order of the native detector
+    static List<String> describe(KeyPointBuffer keypoints) {
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < keypoints.count(); i++)
+            list.add((int) keypoints.x(i) + "," + (int) keypoints.y(i) + "," + (int) keypoints.response(i));
+        return list;
+    }
+
+    /**
+     * Reference detector, a direct and slow reading of the definition, also measured by
+     * FastCornerDetectorBenchmark.
+     */
+    static KeyPointBuffer reference(byte[] image, int width, int height, int threshold, boolean nonmaxSuppression) {
+        int[][] score = new int[height][width];
+        for (int y = 3; y < height - 3; y++) {
+            for (int x = 3; x < width - 3; x++) {
+                if (!isCorner(image, width, x, y, threshold))
+                    continue;
+                // largest threshold for which it is still a corner
+                int s = threshold;
+                while (s < 255 && isCorner(image, width, x, y, s + 1))
+                    s++;
+                score[y][x] = s;
+            }
+        }
+
+        KeyPointBuffer corners = new KeyPointBuffer();
+        for (int y = 3; y < height - 3; y++) {
+            for (int x = 3; x < width - 3; x++) {
+                int s = score[y][x];
+                if (s == 0)
+                    continue;
+                boolean maximum = true;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        if ((dx != 0 || dy != 0) && score[y + dy][x + dx] >= s)
+                            maximum = false;
+                    }
+                }
+                if (!nonmaxSuppression)
+                    corners.add(x, y, 7, -1, 0, 0, -1);
+                else if (maximum)
+                    corners.add(x, y, 7, -1, s, 0, -1);
+            }
+        }
+        return corners;
+    }
+
+    private static boolean isCorner(byte[] image, int width, int x, int y, int threshold) {
+        int v = image[y * width + x] & 0xff;
+        for (int first = 0; first < 16; first++) {
+            boolean brighter = true;
+            boolean darker = true;
+            for (int k = 0; k < 9; k++) {
+                int i = (first + k) % 16;
+                int c = image[(y + CIRCLE_Y[i]) * width + x + CIRCLE_X[i]] & 0xff;
+                brighter &= c > v + threshold;
+                darker &= c < v - threshold;
+            }
+            if (brighter || darker)
+                return true;
+        }
+        return false;
+    }
+
+    // blocks of three grey levels plus noise, with corners at many contrasts
+    static byte[] blockyImage(Random random, int width, int height) {
+        byte[] image = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++)
+                image[y * width + x] = (byte) (((x / 7 + y / 5) % 3) * 60 + random.nextInt(40));
+        }
+        return image;
+    }
+}
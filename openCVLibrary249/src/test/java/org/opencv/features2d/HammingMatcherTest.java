@@ -0,0 +1,173 @@
+package org.opencv.features2d;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks HammingMatcher against a naive scan, on the packed long[] entry points that do not
+ * need the native library.
+ */
+public class HammingMatcherTest {
+
+    @Test
+    public void knnMatch_equalsBruteForce_orbDescriptors() {
+        checkAgainstBruteForce(32, 3, new HammingMatcher(null, 1));
+    }
+
+    @Test
+    public void knnMatch_equalsBruteForce_partialLastWord() {
+        checkAgainstBruteForce(61, 3, new HammingMatcher(null, 1));
+    }
+
+    @Test
+    public void knnMatch_equalsBruteForce_splitAcrossThreads() {
+        checkAgainstBruteForce(32, 2, new HammingMatcher());
+    }
+
+    @Test
+    public void knnMatch_tiesGoToTheLowerTrainRow() {
+        HammingMatcher matcher = new HammingMatcher(null, 1);
+        long[] train = { 1L, 0, 0, 0, 2L, 0, 0, 0, 4L, 0, 0, 0 };
+        matcher.add(train, 3, 32);
+        int[] trainRow = new int[3];
+        int[] distance = new int[3];
+        matcher.knnMatch(new long[4], 1, 3, trainRow, distance);
+        assertArrayEquals(new int[] { 0, 1, 2 }, trainRow);
+        assertArrayEquals(new int[] { 1, 1, 1 }, distance);
+    }
+
+    @Test
+    public void knnMatch_fewerTrainDescriptorsThanK() {
+        HammingMatcher matcher = new HammingMatcher(null, 1);
+        matcher.add(new long[] { 3L, 0, 0, 0 }, 1, 32);
+        int[] trainRow = new int[3];
+        int[] distance = new int[3];
+        matcher.knnMatch(new long[4], 1, 3, trainRow, distance);
+        assertArrayEquals(new int[] { 0, -1, -1 }, trainRow);
+        assertEquals(2, distance[0]);
+        assertEquals(Integer.MAX_VALUE, distance[1]);
+    }
+
+    @Test
+    public void knnMatch_emptyAndClearedMatcherHaveNoMatches() {
+        HammingMatcher matcher = new HammingMatcher(null, 1);
+        int[] trainRow = new int[4];
+        int[] distance = new int[4];
+        matcher.knnMatch(new long[8], 2, 2, trainRow, distance);
+        assertArrayEquals(new int[] { -1, -1, -1, -1 }, trainRow);
+
+        matcher.add(new long[4], 1, 32);
+        matcher.clear();
+        matcher.knnMatch(new long[8], 2, 2, trainRow, distance);
+        assertArrayEquals(new int[] { -1, -1, -1, -1 }, trainRow);
+        assertEquals(Integer.MAX_VALUE, distance[0]);
+    }
+
+    @Test
+    public void add_resolvesImageAndTrainIndex() {
+        HammingMatcher matcher = new HammingMatcher(null, 1);
+        assertEquals(0, matcher.add(new long[3 * 4], 3, 32));
+        assertEquals(1, matcher.add(new long[0], 0, 32));
+        assertEquals(2, matcher.add(new long[5 * 4], 5, 32));
+        assertEquals(8, matcher.getTrainCount());
+        assertEquals(3, matcher.getImageCount());
+        assertEquals(2, matcher.getImgIdx(7));
+        assertEquals(4, matcher.getTrainIdx(7));
+        assertEquals(0, matcher.getImgIdx(2));
+        assertEquals(2, matcher.getTrainIdx(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void add_rejectsOtherDescriptorLength() {
+        HammingMatcher matcher = new HammingMatcher(null, 1);
+        matcher.add(new long[4], 1, 32);
+        matcher.add(new long[8], 1, 64);
+    }
+
+    @Test
+    public void pack_putsBitIOfTheDescriptorInBitIMod64OfWordIDiv64() {
+        Random random = new Random(5);
+        byte[] bytes = new byte[2 * 61];
+        random.nextBytes(bytes);
+        long[] packed = BinaryDescriptorMatcher.pack(bytes, 0, 2, 61, null);
+        int words = BinaryDescriptorMatcher.wordsPerDescriptor(61);
+        assertEquals(8, words);
+        for (int r = 0; r < 2; r++) {
+            for (int i = 0; i < 61 * 8; i++) {
+                int byteBit = (bytes[r * 61 + i / 8] >> (i % 8)) & 1;
+                int wordBit = (int) (packed[r * words + i / 64] >>> (i % 64)) & 1;
+                assertEquals("bit " + i + " of row " + r, byteBit, wordBit);
+            }
+            // padding of the last word stays clear
+            assertEquals(0, packed[r * words + 7] >>> 40);
+        }
+    }
+
+    private static void checkAgainstBruteForce(int descriptorBytes, int k, HammingMatcher matcher) {
+        Random random = new Random(1);
+        int words = BinaryDescriptorMatcher.wordsPerDescriptor(descriptorBytes);
+        int images = 5;
+        int perImage = 400;
+        long[] all = new long[images * perImage * words];
+        for (int img = 0; img < images; img++) {
+            long[] packed = randomDescriptors(random, perImage, descriptorBytes);
+            System.arraycopy(packed, 0, all, img * perImage * words, packed.length);
+            assertEquals(img, matcher.add(packed, perImage, descriptorBytes));
+        }
+
+        int queries = 300;
+        long[] query = randomDescriptors(random, queries, descriptorBytes);
+        // some exact duplicates of train rows
+        for (int q = 0; q < queries; q += 10)
+            System.arraycopy(all, q * 6 * words, query, q * words, words);
+        int[] trainRow = new int[queries * k];
+        int[] distance = new int[queries * k];
+        matcher.knnMatch(query, queries, k, trainRow, distance);
+
+        int[] bestRow = new int[k];
+        int[] bestDistance = new int[k];
+        for (int q = 0; q < queries; q++) {
+            bruteForce(query, q, all, images * perImage, words, bestRow, bestDistance);
+            for (int j = 0; j < k; j++) {
+                assertEquals("distance of rank " + j + " of query " + q, bestDistance[j], distance[q * k + j]);
+                assertEquals("train row of rank " + j + " of query " + q, bestRow[j], trainRow[q * k + j]);
+            }
+            int t = trainRow[q * k];
+            assertEquals(t / perImage, matcher.getImgIdx(t));
+            assertEquals(t % perImage, matcher.getTrainIdx(t));
+        }
+    }
+
+    private static void bruteForce(long[] query, int q, long[] train, int n, int words, int[] bestRow, int[] bestDistance) {
+        int k = bestRow.length;
+        for (int j = 0; j < k; j++) {
+            bestRow[j] = -1;
+            bestDistance[j] = Integer.MAX_VALUE;
+        }
+        for (int t = 0; t < n; t++) {
+            int d = 0;
+            for (int w = 0; w < words; w++)
+                d += Long.bitCount(query[q * words + w] ^ train[t * words + w]);
+            for (int j = 0; j < k; j++) {
+                if (d < bestDistance[j]) {
+                    for (int l = k - 1; l > j; l--) {
+                        bestDistance[l] = bestDistance[l - 1];
+                        bestRow[l] = bestRow[l - 1];
+                    }
+                    bestDistance[j] = d;
+                    bestRow[j] = t;
+                    break;
+                }
+            }
+        }
+    }
+
+    static long[] randomDescriptors(Random random, int count, int descriptorBytes) {
+        byte[] bytes = new byte[count * descriptorBytes];
+        random.nextBytes(bytes);
+        return BinaryDescriptorMatcher.pack(bytes, 0, count, descriptorBytes, null);
+    }
+}
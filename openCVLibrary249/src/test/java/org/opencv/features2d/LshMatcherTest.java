@@ -0,0 +1,158 @@
+package org.opencv.features2d;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the recall of LshMatcher against HammingMatcher on noisy copies of train descriptors.
+ */
+public class LshMatcherTest {
+
+    private static final int IMAGES = 40;
+    private static final int PER_IMAGE = 500;
+    private static final int QUERIES = 400;
+
+    @Test
+    public void knnMatch_findsMostNearestNeighbours() {
+        Random random = new Random(7);
+        long[] train = HammingMatcherTest.randomDescriptors(random, IMAGES * PER_IMAGE, 32);
+        long[] query = noisyCopies(random, train, QUERIES, 8);
+
+        HammingMatcher exact = new HammingMatcher(null, 1);
+        LshMatcher lsh = new LshMatcher();
+        addImages(exact, train);
+        addImages(lsh, train);
+
+        int[] exactRow = new int[QUERIES * 2];
+        int[] exactDistance = new int[QUERIES * 2];
+        exact.knnMatch(query, QUERIES, 2, exactRow, exactDistance);
+        int[] lshRow = new int[QUERIES * 2];
+        int[] lshDistance = new int[QUERIES * 2];
+        lsh.knnMatch(query, QUERIES, 2, lshRow, lshDistance);
+
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            if (lshDistance[2 * q] == exactDistance[2 * q])
+                found++;
+        }
+        assertTrue("recall@1 " + found + "/" + QUERIES, found >= QUERIES * 9 / 10);
+        // far fewer comparisons than the exhaustive scan
+        assertTrue("mean candidates " + lsh.getMeanCandidates(), lsh.getMeanCandidates() < IMAGES * PER_IMAGE / 10);
+    }
+
+    @Test
+    public void knnMatch_reportsTrueSortedDistances() {
+        Random random = new Random(3);
+        long[] train = HammingMatcherTest.randomDescriptors(random, IMAGES * PER_IMAGE, 32);
+        long[] query = noisyCopies(random, train, QUERIES, 20);
+        LshMatcher lsh = new LshMatcher(8, 16, 1, 1, null, 1);
+        addImages(lsh, train);
+
+        int k = 3;
+        int[] row = new int[QUERIES * k];
+        int[] distance = new int[QUERIES * k];
+        lsh.knnMatch(query, QUERIES, k, row, distance);
+        for (int q = 0; q < QUERIES; q++) {
+            for (int j = 0; j < k; j++) {
+                int t = row[q * k + j];
+                if (t < 0) {
+                    assertEquals(Integer.MAX_VALUE, distance[q * k + j]);
+                    continue;
+                }
+                assertEquals(hamming(query, q, train, t), distance[q * k + j]);
+                if (j > 0)
+                    assertTrue(distance[q * k + j - 1] <= distance[q * k + j]);
+            }
+        }
+    }
+
+    @Test
+    public void knnMatch_alwaysFindsExactDuplicates() {
+        Random random = new Random(11);
+        long[] train = HammingMatcherTest.randomDescriptors(random, IMAGES * PER_IMAGE, 32);
+        long[] query = noisyCopies(random, train, QUERIES, 0);
+        LshMatcher lsh = new LshMatcher(4, 20, 0, 2, null, 1);
+        addImages(lsh, train);
+
+        int[] row = new int[QUERIES];
+        int[] distance = new int[QUERIES];
+        lsh.knnMatch(query, QUERIES, 1, row, distance);
+        for (int q = 0; q < QUERIES; q++)
+            assertEquals(0, distance[q]);
+    }
+
+    @Test
+    public void knnMatch_emptyAndClearedMatcherHaveNoMatches() {
+        LshMatcher lsh = new LshMatcher();
+        int[] row = new int[2];
+        int[] distance = new int[2];
+        lsh.knnMatch(new long[8], 2, 1, row, distance);
+        assertArrayEquals(new int[] { -1, -1 }, row);
+        assertArrayEquals(new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE }, distance);
+
+        lsh.add(new long[4], 1, 32);
+        lsh.clear();
+        lsh.knnMatch(new long[8], 2, 1, row, distance);
+        assertArrayEquals(new int[] { -1, -1 }, row);
+
+        // usable again after the clear, also with another descriptor length
+        lsh.add(new long[] { 0, 0, 0, 0, 0, 0, 0, 1L }, 1, 64);
+        lsh.knnMatch(new long[8], 1, 1, row, distance);
+        assertEquals(0, row[0]);
+        assertEquals(1, distance[0]);
+    }
+
+    @Test
+    public void add_oneImageAtATimeEqualsOneBatch() {
+        Random random = new Random(13);
+        long[] train = HammingMatcherTest.randomDescriptors(random, IMAGES * PER_IMAGE, 32);
+        long[] query = noisyCopies(random, train, QUERIES, 8);
+        LshMatcher perImage = new LshMatcher(8, 16, 1, 5, null, 1);
+        addImages(perImage, train);
+        LshMatcher batch = new LshMatcher(8, 16, 1, 5, null, 1);
+        batch.add(train, IMAGES * PER_IMAGE, 32);
+
+        int[] rowA = new int[QUERIES * 2];
+        int[] distanceA = new int[QUERIES * 2];
+        int[] rowB = new int[QUERIES * 2];
+        int[] distanceB = new int[QUERIES * 2];
+        perImage.knnMatch(query, QUERIES, 2, rowA, distanceA);
+        batch.knnMatch(query, QUERIES, 2, rowB, distanceB);
+        assertArrayEquals(rowA, rowB);
+        assertArrayEquals(distanceA, distanceB);
+    }
+
+    private static void addImages(BinaryDescriptorMatcher matcher, long[] train) {
+        int words = 4;
+        for (int img = 0; img < IMAGES; img++) {
+            long[] packed = new long[PER_IMAGE * words];
+            System.arraycopy(train, img * PER_IMAGE * words, packed, 0, packed.length);
+            matcher.add(packed, PER_IMAGE, 32);
+        }
+    }
+
+    // copies of random train rows with flips random bits flipped
+    private static long[] noisyCopies(Random random, long[] train, int count, int flips) {
+        int words = 4;
+        int rows = train.length / words;
+        long[] query = new long[count * words];
+        for (int q = 0; q < count; q++) {
+            System.arraycopy(train, random.nextInt(rows) * words, query, q * words, words);
+            for (int f = 0; f < flips; f++) {
+                int bit = random.nextInt(256);
+                query[q * words + (bit >> 6)] ^= 1L << (bit & 63);
+            }
+        }
+        return query;
+    }
+
+    private static int hamming(long[] query, int q, long[] train, int t) {
+        int d = 0;
+        for (int w = 0; w < 4; w++)
+            d += Long.bitCount(query[q * 4 + w] ^ train[t * 4 + w]);
+        return d;
+    }
+}
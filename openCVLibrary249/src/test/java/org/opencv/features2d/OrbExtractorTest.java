@@ -0,0 +1,178 @@
+package org.opencv.features2d;
+
+import org.junit.Test;
+import org.opencv.core.KeyPointBuffer;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks OrbExtractor on a smoothed random texture and its 90 degree rotation, and the layout
+ * of the packed descriptors against BinaryDescriptorMatcher.pack().
+ */
+public class OrbExtractorTest {
+
+    private static final int SIZE = 400;
+    private static final int KEYPOINTS = 200;
+
+    @Test
+    public void compute_isInvariantToRotation() {
+        Random random = new Random(3);
+        byte[] image = texture(random, SIZE);
+        byte[] rotated = rotate(image, SIZE);
+
+        // pixel (x, y) of the image is pixel (y, SIZE - 1 - x) of the rotated image
+        KeyPointBuffer keypoints = new KeyPointBuffer();
+        KeyPointBuffer rotatedKeypoints = new KeyPointBuffer();
+        for (int i = 0; i < KEYPOINTS; i++) {
+            int x = 40 + random.nextInt(SIZE - 80);
+            int y = 40 + random.nextInt(SIZE - 80);
+            keypoints.add(x, y, 31, -1, 0, 0, -1);
+            rotatedKeypoints.add(y, SIZE - 1 - x, 31, -1, 0, 0, -1);
+        }
+        OrbExtractor extractor = new OrbExtractor();
+        long[] descriptors = extractor.compute(image, 0, SIZE, SIZE, SIZE, keypoints, null);
+        long[] rotatedDescriptors = extractor.compute(rotated, 0, SIZE, SIZE, SIZE, rotatedKeypoints, null);
+        assertEquals(KEYPOINTS, keypoints.count());
+        assertEquals(KEYPOINTS, rotatedKeypoints.count());
+
+        long same = 0;
+        long unrelated = 0;
+        int turned = 0;
+        for (int i = 0; i < KEYPOINTS; i++) {
+            same += hamming(descriptors, i, rotatedDescriptors, i);
+            unrelated += hamming(descriptors, i, rotatedDescriptors, (i + 1) % KEYPOINTS);
+            // the rotation turns every direction by 270 degrees in image coordinates
+            float difference = Math.abs(rotatedKeypoints.angle(i) - (keypoints.angle(i) + 270) % 360);
+            if (Math.min(difference, 360 - difference) < 15)
+                turned++;
+        }
+        assertTrue("mean distance " + same / KEYPOINTS + " vs " + unrelated / KEYPOINTS, same * 2 < unrelated);
+        assertTrue("angles turned " + turned + "/" + KEYPOINTS, turned >= KEYPOINTS * 8 / 10);
+
+        HammingMatcher matcher = new HammingMatcher(null, 1);
+        matcher.add(rotatedDescriptors, KEYPOINTS, OrbExtractor.DESCRIPTOR_BYTES);
+        int[] trainRow = new int[KEYPOINTS];
+        int[] distance = new int[KEYPOINTS];
+        matcher.knnMatch(descriptors, KEYPOINTS, 1, trainRow, distance);
+        int correct = 0;
+        for (int i = 0; i < KEYPOINTS; i++) {
+            if (trainRow[i] == i)
+                correct++;
+        }
+        assertTrue("nearest neighbours " + correct + "/" + KEYPOINTS, correct >= KEYPOINTS * 8 / 10);
+    }
+
+    @Test
+    public void unpack_isTheInverseOfPack() {
+        Random random = new Random(5);
+        byte[] image = texture(random, 200);
+        KeyPointBuffer keypoints = new KeyPointBuffer();
+        for (int i = 0; i < 50; i++)
+            keypoints.add(31 + random.nextInt(138), 31 + random.nextInt(138), 31, -1, 0, 0, -1);
+        long[] descriptors = new OrbExtractor().compute(image, 0, 200, 200, 200, keypoints, null);
+
+        byte[] bytes = OrbExtractor.unpack(descriptors, keypoints.count());
+        for (int i = 0; i < bytes.length * 8; i++) {
+            int byteBit = (bytes[i / 8] >> (i % 8)) & 1;
+            int wordBit = (int) (descriptors[i / 64] >>> (i % 64)) & 1;
+            assertEquals("bit " + i, wordBit, byteBit);
+        }
+        long[] packed = BinaryDescriptorMatcher.pack(bytes, 0, keypoints.count(), OrbExtractor.DESCRIPTOR_BYTES, null);
+        assertArrayEquals(descriptors, packed);
+    }
+
+    @Test
+    public void compute_removesBorderKeypointsAndSetsTheAngle() {
+        byte[] image = texture(new Random(7), 100);
+        KeyPointBuffer keypoints = new KeyPointBuffer();
+        keypoints.add(30, 50, 31, -1, 0, 0, -1);
+        keypoints.add(31, 50, 31, -1, 1f, 0, -1);
+        keypoints.add(50, 68, 31, -1, 2f, 0, -1);
+        keypoints.add(50, 69, 31, -1, 0, 0, -1);
+        keypoints.add(68, 31, 31, -1, 3f, 0, -1);
+        long[] out = new long[16];
+        long[] descriptors = new OrbExtractor().compute(image, 0, 100, 100, 100, keypoints, out);
+
+        assertSame(out, descriptors);
+        assertEquals(3, keypoints.count());
+        for (int i = 0; i < 3; i++) {
+            // the survivors keep their order and their other fields
+            assertEquals(i + 1f, keypoints.response(i), 0f);
+            assertTrue(keypoints.angle(i) >= 0 && keypoints.angle(i) < 360);
+        }
+    }
+
+    @Test
+    public void compute_honoursOffsetAndStride() {
+        Random random = new Random(9);
+        byte[] image = texture(random, 120);
+        int stride = 131;
+        int offset = 7;
+        byte[] padded = new byte[offset + 120 * stride];
+        random.nextBytes(padded);
+        for (int y = 0; y < 120; y++)
+            System.arraycopy(image, y * 120, padded, offset + y * stride, 120);
+
+        KeyPointBuffer keypoints = new KeyPointBuffer();
+        KeyPointBuffer paddedKeypoints = new KeyPointBuffer();
+        for (int i = 0; i < 20; i++) {
+            int x = 31 + random.nextInt(58);
+            int y = 31 + random.nextInt(58);
+            keypoints.add(x, y, 31, -1, 0, 0, -1);
+            paddedKeypoints.add(x, y, 31, -1, 0, 0, -1);
+        }
+        OrbExtractor extractor = new OrbExtractor();
+        long[] expected = extractor.compute(image, 0, 120, 120, 120, keypoints, null);
+        long[] actual = extractor.compute(padded, offset, 120, 120, stride, paddedKeypoints, null);
+        assertArrayEquals(expected, actual);
+    }
+
+    private static int hamming(long[] a, int i, long[] b, int j) {
+        int d = 0;
+        for (int w = 0; w < OrbExtractor.WORDS_PER_DESCRIPTOR; w++)
+            d += Long.bitCount(a[i * OrbExtractor.WORDS_PER_DESCRIPTOR + w] ^ b[j * OrbExtractor.WORDS_PER_DESCRIPTOR + w]);
+        return d;
+    }
+
+    // random noise blurred three times with a 3x3 box, stretched to 0..255
+    private static byte[] texture(Random random, int size) {
+        float[] f = new float[size * size];
+        for (int i = 0; i < f.length; i++)
+            f[i] = random.nextFloat();
+        for (int pass = 0; pass < 3; pass++) {
+            float[] g = new float[size * size];
+            for (int y = 1; y < size - 1; y++) {
+                for (int x = 1; x < size - 1; x++) {
+                    float sum = 0;
+                    for (int dy = -1; dy <= 1; dy++) {
+                        for (int dx = -1; dx <= 1; dx++)
+                            sum += f[(y + dy) * size + x + dx];
+                    }
+                    g[y * size + x] = sum / 9;
+                }
+            }
+            f = g;
+        }
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (float v : f) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        byte[] image = new byte[size * size];
+        for (int i = 0; i < f.length; i++)
+            image[i] = (byte) (int) ((f[i] - min) / (max - min) * 255);
+        return image;
+    }
+
+    private static byte[] rotate(byte[] image, int size) {
+        byte[] rotated = new byte[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++)
+                rotated[y * size + x] = image[x * size + size - 1 - y];
+        }
+        return rotated;
+    }
+}